@@ -0,0 +1,189 @@
+/**
+ * DISTRIBUTED KEY-VALUE STORE
+ * Distributed Systems 1
+ * University of Trento
+ *
+ * @author Samuele Angheben
+ * @author Sebastiano Cassol
+ */
+
+package it.unitn.ds1;
+
+import akka.actor.ActorRef;
+import com.typesafe.config.ConfigFactory;
+import it.unitn.ds1.actors.DataNode.AskWriteData;
+import it.unitn.ds1.actors.DataNode.WriteMode;
+import it.unitn.ds1.database.DistributedKeyValueStore;
+import it.unitn.ds1.database.KeyValueClient;
+import it.unitn.ds1.database.KeyValueClient.Reason;
+import it.unitn.ds1.database.KeyValueClient.RequestFailedException;
+import it.unitn.ds1.utils.NodeMailbox;
+import it.unitn.ds1.utils.Profile;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmark
+ * Runs the same workload of reads and updates with every dispatchers profile and compares
+ * the latency and the throughput of the client requests.
+ * Every worker thread owns a disjoint set of keys and sends one request at a time through the blocking
+ * KeyValueClient, so that the requests never compete for the same lock.
+ * With the churn argument, a node holding many items joins and then leaves during the load,
+ * and every profile runs both with the priority mailbox of the data nodes and with a FIFO one.
+ * With the blind and primary arguments, every run is repeated with those write modes, compared to the quorum one.
+ * With the chain argument, chain replication is compared to the quorum one with 3 and with 5 replicas.
+ */
+public class Benchmark {
+
+    private static final int N = 2;
+    private static final int W = 2;
+    private static final int R = 2;
+    //                                          N, W, R
+    private static final int[][] CHAIN_REPLICATION = {{3, 2, 2}, {5, 3, 3}};
+    private static final int T = 5000;
+    private static final int P = 4; // partitions per data node
+    private static final int C = 2; // coordinators per data node
+    private static final int dataNodeCount = 10;
+    private static final int workers = 16; // concurrent requests
+    private static final int keysPerWorker = 6; // the keys of the workers are in 1..96
+    private static final int loadDuration = 10000; // in ms
+    private static final int readPercentage = 80;
+    private static final int bulkKeys = 3000; // keys over the last data node key, moved by the churn
+    private static final int bulkValueSize = 64;
+    private static final int joiningKey = 3100;
+    private static final String FIFO_MAILBOX = "akka.dispatch.UnboundedMailbox";
+
+    public static void main(String[] args) throws InterruptedException {
+        // [churn] [blind] [primary] [chain] [profiles...], all the profiles by default
+        List<String> params = new ArrayList<>(Arrays.asList(args));
+        boolean churn = params.remove("churn");
+        List<WriteMode> writeModes = new ArrayList<>(List.of(WriteMode.QUORUM));
+        for (WriteMode mode : List.of(WriteMode.BLIND, WriteMode.PRIMARY, WriteMode.CHAIN)) {
+            if (params.remove(mode.name().toLowerCase())) {
+                writeModes.add(mode);
+            }
+        }
+        int[][] replications = writeModes.contains(WriteMode.CHAIN) ? CHAIN_REPLICATION : new int[][]{{N, W, R}};
+        List<String> profiles = params.isEmpty() ? List.of(Profile.LATENCY, Profile.THROUGHPUT) : params;
+
+        List<String> results = new ArrayList<>();
+        for (String profile : profiles) {
+            for (int[] replication : replications) {
+                for (WriteMode writeMode : writeModes) {
+                    if (churn) {
+                        results.add(run(profile, NodeMailbox.class.getName(), true, writeMode, replication));
+                        results.add(run(profile, FIFO_MAILBOX, true, writeMode, replication));
+                    } else {
+                        results.add(run(profile, NodeMailbox.class.getName(), false, writeMode, replication));
+                    }
+                }
+            }
+        }
+
+        System.out.println("\nBENCHMARK | workers: " + workers + ", duration: " + loadDuration + " ms, reads: "
+                + readPercentage + "%, churn: " + churn + " |");
+        for (String result : results) {
+            System.out.println(result);
+        }
+    }
+
+    /**
+     * Run the workload with a profile.
+     * @param profile the dispatchers profile
+     * @param mailbox the mailbox type of the data nodes
+     * @param churn true to make a node join and leave during the load
+     * @param writeMode how the coordinators perform the updates
+     * @param replication the replicas, the write quorum and the read quorum
+     * @return the summary of the run
+     */
+    private static String run(String profile, String mailbox, boolean churn, WriteMode writeMode, int[] replication)
+            throws InterruptedException {
+        // the system properties override the configuration files
+        System.setProperty("dkvs.node-dispatcher.mailbox-type", mailbox);
+        ConfigFactory.invalidateCaches();
+        DistributedKeyValueStore database = new DistributedKeyValueStore(
+                "DKVBenchmark", replication[0], replication[1], replication[2], T, P, C, dataNodeCount, 0, profile);
+        database.setWriteMode(writeMode);
+        Thread.sleep(1000); // wait for startup
+
+        /* Insert the keys */
+        int keyCount = workers * keysPerWorker;
+        for (int key = 1; key <= keyCount; key++) {
+            database.getDataNode(key % dataNodeCount).tell(new AskWriteData(key, "v0"), ActorRef.noSender());
+        }
+        if (churn) {
+            String bulkValue = "x".repeat(bulkValueSize);
+            for (int key = dataNodeCount * 10 + 1; key <= bulkKeys; key++) {
+                database.getDataNode(key % dataNodeCount).tell(new AskWriteData(key, bulkValue), ActorRef.noSender());
+            }
+        }
+        Thread.sleep(2000); // wait for the writes
+
+        /* Send the requests */
+        ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        AtomicInteger failures = new AtomicInteger(0);
+        AtomicInteger rejections = new AtomicInteger(0);
+        KeyValueClient client = new KeyValueClient(database, Duration.ofMillis(2L * T));
+        List<Thread> threads = new ArrayList<>();
+        long start = System.nanoTime();
+        long deadline = System.currentTimeMillis() + loadDuration;
+        for (int w = 0; w < workers; w++) {
+            int worker = w;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(worker);
+                for (int i = 0; System.currentTimeMillis() < deadline; i++) {
+                    // the keys of a worker are worker + 1, worker + 1 + workers, ...
+                    int key = worker + 1 + workers * random.nextInt(keysPerWorker);
+                    long sent = System.nanoTime();
+                    try {
+                        if (random.nextInt(100) < readPercentage) {
+                            client.get(key);
+                        } else {
+                            client.update(key, "v" + i);
+                        }
+                        latencies.add(System.nanoTime() - sent);
+                    } catch (RequestFailedException e) {
+                        if (e.reason == Reason.OVERLOADED || e.reason == Reason.RATE_LIMITED) {
+                            rejections.incrementAndGet();
+                        } else {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        if (churn) {
+            // the joining node takes the bulk keys from the first data nodes and gives them back when leaving
+            Thread.sleep(loadDuration / 10);
+            ActorRef joiningNode = database.createDataNode("JOINING", joiningKey);
+            database.join(joiningNode, database.getDataNode(0));
+            Thread.sleep(loadDuration / 2);
+            database.leave(joiningNode);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        client.close();
+        database.terminate();
+        Thread.sleep(1000); // wait for shutdown
+
+        /* Summary */
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        double average = sorted.stream().mapToLong(Long::longValue).average().orElse(0) / 1e6;
+        double p50 = sorted.isEmpty() ? 0 : sorted.get(sorted.size() / 2) / 1e6;
+        double p99 = sorted.isEmpty() ? 0 : sorted.get((int) (sorted.size() * 0.99)) / 1e6;
+        double throughput = sorted.size() / (elapsed / 1e9);
+        String label = profile + (churn ? mailbox.equals(FIFO_MAILBOX) ? "/fifo" : "/priority" : "")
+                + (writeMode != WriteMode.QUORUM ? "/" + writeMode.name().toLowerCase() : "")
+                + (replication[0] != N ? "/N=" + replication[0] : "");
+        return String.format("%-28s | throughput: %8.1f req/s, avg: %7.2f ms, p50: %7.2f ms, p99: %7.2f ms, rejected: %d, failed: %d |",
+                label, throughput, average, p50, p99, rejections.get(), failures.get());
+    }
+}
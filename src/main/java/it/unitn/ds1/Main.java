@@ -10,8 +10,10 @@
 package it.unitn.ds1;
 
 import akka.actor.ActorRef;
+import it.unitn.ds1.actors.DataNode.WriteMode;
 import it.unitn.ds1.database.DistributedKeyValueStore;
 import it.unitn.ds1.logger.Logs;
+import it.unitn.ds1.utils.Profile;
 
 import java.io.IOException;
 
@@ -21,15 +23,22 @@ public class Main {
     private static final int W = 2;
     private static final int R = 2;
     private static final int T = 5000;
+    private static final int P = 4; // partitions per data node
+    private static final int C = 2; // coordinators per data node
     private static final int dataNodeCount = 10;
     private static final int clientCount = 4;
 
     public static void main(String[] args) throws InterruptedException {
+        // dispatchers profile: latency (default) or throughput
+        String profile = args.length > 0 ? args[0] : Profile.LATENCY;
+        // write mode: quorum (default), blind, primary or chain
+        WriteMode writeMode = args.length > 1 ? WriteMode.valueOf(args[1].toUpperCase()) : WriteMode.QUORUM;
 
         /* Instantiate a new distributed key-value store */
         Logs.printStartupInfo(N, W, R, dataNodeCount, clientCount);
         DistributedKeyValueStore database = new DistributedKeyValueStore(
-                "DKVSystem", N, W, R, T, dataNodeCount, clientCount);
+                "DKVSystem", N, W, R, T, P, C, dataNodeCount, clientCount, profile);
+        database.setWriteMode(writeMode);
 
         Thread.sleep(1000); // wait for startup
 
@@ -1,6 +1,7 @@
 package it.unitn.ds1.actors;
 
 import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
 
 import akka.actor.*;
 import com.sun.tools.jconsole.JConsoleContext;
@@ -8,7 +9,11 @@ import it.unitn.ds1.actors.DataNode.*;
 import it.unitn.ds1.logger.ErrorType;
 import it.unitn.ds1.logger.Logs;
 import it.unitn.ds1.logger.TimeoutType;
+import it.unitn.ds1.managers.RequestManager;
+import it.unitn.ds1.managers.RoutingManager;
 import it.unitn.ds1.utils.Helper;
+import it.unitn.ds1.utils.Profile;
+import scala.concurrent.duration.Duration;
 
 /**
  * Client Node
@@ -18,13 +23,21 @@ public class ClientNode extends AbstractActor {
     // used to identify a message
     private Integer Id = 0;
     private boolean isBusy = false;
-
-    public ClientNode() {
+    private long backoffUntil = 0; // time before which the client does not send requests, set by the rate limits
+    private final RoutingManager routingManager = new RoutingManager();
+    private boolean directReads = false; // the replicas send the reads straight to the client
+    private final RequestManager requestManager; // the direct reads, with the coordinator that sent them
+    private final int maxTimeout; // in ms
+
+    public ClientNode(int readQuorum, int maxTimeout) {
+        this.requestManager = new RequestManager(0, readQuorum);
+        this.maxTimeout = maxTimeout;
         System.out.println("CLIENT: is " + Helper.getName(self()));
     }
 
-    static public Props props() {
-        return Props.create(ClientNode.class, ClientNode::new);
+    static public Props props(int readQuorum, int maxTimeout) {
+        return Props.create(ClientNode.class, () -> new ClientNode(readQuorum, maxTimeout))
+                .withDispatcher(Profile.CLIENT_DISPATCHER);
     }
 
     /* ------- MESSAGES ------- */
@@ -78,21 +91,86 @@ public class ClientNode extends AbstractActor {
         }
     }
 
+    /**
+     * RefreshRing
+     * A message that tells the client to fetch the ring, used to send the requests to the replicas of the keys.
+     * It is sent by the system and received by the client.
+     */
+    public static class RefreshRing implements Serializable {
+        public final ActorRef dataNode;
+
+        /**
+         * @param dataNode the data node that sends the ring
+         */
+        public RefreshRing(ActorRef dataNode) {
+            this.dataNode = dataNode;
+        }
+    }
+
+    /**
+     * SetReadMode
+     * A message that changes how the client reads: through the coordinator, or straight from the replicas.
+     * It is sent by the system and received by the client.
+     */
+    public static class SetReadMode implements Serializable {
+        public final boolean directReads;
+
+        /**
+         * @param directReads true if the replicas reply straight to the client
+         */
+        public SetReadMode(boolean directReads) {
+            this.directReads = directReads;
+        }
+    }
+
     /* ------- HANDLERS ------- */
 
+    /**
+     * Get the coordinator of a request.
+     * @param chosen the coordinator chosen by the system, null to let the client route the request
+     * @param key the key of the request
+     * @return the chosen coordinator, or a replica of the key
+     */
+    private ActorRef getCoordinator(ActorRef chosen, Integer key) {
+        return chosen != null ? chosen : routingManager.pickCoordinator(key);
+    }
+
+    /**
+     * Get the ring epoch sent with a request, checked by the coordinator only if the client routed the request.
+     * @param chosen the coordinator chosen by the system, null if the client routes the request
+     * @return the epoch of the ring, -1 if the request is not routed
+     */
+    private int getEpoch(ActorRef chosen) {
+        return chosen != null ? -1 : routingManager.getEpoch();
+    }
+
+    /**
+     * Check if the client cannot route a request, since it does not know the ring yet.
+     * @param chosen the coordinator chosen by the system, null to let the client route the request
+     * @return true if the request cannot be sent
+     */
+    private boolean cannotRoute(ActorRef chosen) {
+        return chosen == null && routingManager.getEpoch() < 0;
+    }
+
     /**
      * ClientWrite message handler.
      * @param msg ClientWrite message
      * @see ClientWrite
      */
     public void onClientWrite(ClientWrite msg) {
-        if (!this.isBusy) {
+        if (System.currentTimeMillis() < this.backoffUntil) {
+            Logs.error(ErrorType.CLIENT_BACKOFF, msg.key, Helper.getName(self()));
+        } else if (cannotRoute(msg.coordinator)) {
+            Logs.error(ErrorType.NO_ROUTE, msg.key, Helper.getName(self()));
+        } else if (!this.isBusy) {
             this.isBusy = true;
-            AskWriteData data = new AskWriteData(msg.key, msg.value);
-            msg.coordinator.tell(data, self());
+            ActorRef coordinator = getCoordinator(msg.coordinator, msg.key);
+            AskWriteData data = new AskWriteData(msg.key, msg.value, getEpoch(msg.coordinator));
+            coordinator.tell(data, self());
 
             // logging
-            Logs.client_write(msg.key, msg.value, Helper.getName(self()), msg.coordinator.path().name());
+            Logs.client_write(msg.key, msg.value, Helper.getName(self()), coordinator.path().name());
             this.isBusy = false;
         } else {
             Logs.error(ErrorType.CLIENT_BUSY, msg.key, Helper.getName(self()));
@@ -105,15 +183,31 @@ public class ClientNode extends AbstractActor {
      * @see ClientRead
      */
     public void onClientRead(ClientRead msg) {
-        if (!this.isBusy) {
+        if (System.currentTimeMillis() < this.backoffUntil) {
+            Logs.error(ErrorType.CLIENT_BACKOFF, msg.key, Helper.getName(self()));
+        } else if (cannotRoute(msg.coordinator)) {
+            Logs.error(ErrorType.NO_ROUTE, msg.key, Helper.getName(self()));
+        } else if (!this.isBusy) {
             this.isBusy = true;
             String requestId = self().path() + "/" + this.Id.toString();
             this.Id++;
-            AskReadData data = new AskReadData(msg.key, requestId);
-            msg.coordinator.tell(data, self());
+            ActorRef coordinator = getCoordinator(msg.coordinator, msg.key);
+            AskReadData data = new AskReadData(msg.key, requestId, getEpoch(msg.coordinator), this.directReads);
+            coordinator.tell(data, self());
+            routingManager.requestSent(coordinator);
+            if (this.directReads) {
+                // the client collects the read quorum
+                requestManager.newReadReq(requestId, coordinator);
+                getContext().system().scheduler().scheduleOnce(
+                        Duration.create(maxTimeout, TimeUnit.MILLISECONDS),
+                        getSelf(),
+                        new TimeoutOnRead(requestId),
+                        getContext().system().dispatchers().lookup(Profile.TIMER_DISPATCHER), getSelf()
+                );
+            }
 
             // logging
-            Logs.client_read(msg.key, Helper.getName(self()), msg.coordinator.path().name());
+            Logs.client_read(msg.key, Helper.getName(self()), coordinator.path().name());
         } else {
             Logs.error(ErrorType.CLIENT_BUSY, msg.key, Helper.getName(self()));
         }
@@ -125,27 +219,76 @@ public class ClientNode extends AbstractActor {
      * @see SendRead2Client
      */
     public void onSendRead2Client(SendRead2Client msg) {
+        requestManager.removeReadReq(msg.requestId); // a direct read served by the coordinator, under chain replication
         this.isBusy = false;
+        routingManager.requestCompleted(getSender());
 
         // logging
         Logs.read_reply_on_client(msg.value, msg.requestId, Helper.getName(getSender()), Helper.getName(self()));
     }
 
+    /**
+     * SendRead message handler.
+     * Adds the data of a replica to the quorum of a direct read.
+     * If the quorum is reached, the read is completed.
+     * @param msg SendRead message
+     * @see SendRead
+     */
+    public void onSendRead(SendRead msg) {
+        switch (requestManager.addReadResp(msg.requestId, msg.data)) {
+            case OK -> {
+                ActorRef coordinator = requestManager.getClientReadReq(msg.requestId);
+                String value = requestManager.getReadValue(msg.requestId);
+                requestManager.removeReadReq(msg.requestId);
+                this.isBusy = false;
+                routingManager.requestCompleted(coordinator);
+
+                // logging
+                Logs.read_reply_on_client(value, msg.requestId, Helper.getName(getSender()), Helper.getName(self()));
+            }
+            default -> {}
+        }
+    }
+
+    /**
+     * TimeoutOnRead message handler.
+     * The replicas did not reach the quorum of a direct read in time.
+     * @param msg TimeoutOnRead message
+     * @see TimeoutOnRead
+     */
+    public void onTimeoutOnRead(TimeoutOnRead msg) {
+        if (requestManager.isTimeoutOnRead(msg.requestId)) {
+            ActorRef coordinator = requestManager.getClientReadReq(msg.requestId);
+            requestManager.removeReadReq(msg.requestId);
+            this.isBusy = false;
+            routingManager.requestCompleted(coordinator);
+
+            // logging
+            Logs.timeout(TimeoutType.READ, msg.requestId, Helper.getName(coordinator), Helper.getName(self()));
+        }
+    }
+
     /**
      * ClientUpdate message handler.
      * @param msg ClientUpdate message
      * @see ClientUpdate
      */
     public void onClientUpdate(ClientUpdate msg) {
-        if (!this.isBusy) {
+        if (System.currentTimeMillis() < this.backoffUntil) {
+            Logs.error(ErrorType.CLIENT_BACKOFF, msg.key, Helper.getName(self()));
+        } else if (cannotRoute(msg.coordinator)) {
+            Logs.error(ErrorType.NO_ROUTE, msg.key, Helper.getName(self()));
+        } else if (!this.isBusy) {
             this.isBusy = true;
             String requestId = self().path() + "/" + this.Id.toString();
             this.Id++;
-            AskUpdateData data = new AskUpdateData(msg.key, msg.value, requestId);
-            msg.coordinator.tell(data, self());
+            ActorRef coordinator = getCoordinator(msg.coordinator, msg.key);
+            AskUpdateData data = new AskUpdateData(msg.key, msg.value, requestId, getEpoch(msg.coordinator));
+            coordinator.tell(data, self());
+            routingManager.requestSent(coordinator);
 
             // logging
-            Logs.client_update(msg.key, msg.value, Helper.getName(self()), msg.coordinator.path().name());
+            Logs.client_update(msg.key, msg.value, Helper.getName(self()), coordinator.path().name());
         } else {
             Logs.error(ErrorType.CLIENT_BUSY, msg.key, Helper.getName(self()));
         }
@@ -159,6 +302,7 @@ public class ClientNode extends AbstractActor {
      */
     public void onReturnUpdate(ReturnUpdate msg) {
         this.isBusy = false;
+        routingManager.requestCompleted(getSender());
 
         // logging
         Logs.update_reply_on_client(msg.version, msg.requestId, Helper.getName(getSender()), Helper.getName(self()));
@@ -171,6 +315,7 @@ public class ClientNode extends AbstractActor {
      */
     public void onReturnTimeoutOnRead(ReturnTimeoutOnRead msg) {
         this.isBusy = false;
+        routingManager.requestCompleted(getSender());
 
         // logging
         Logs.timeout(TimeoutType.READ, msg.requestId, Helper.getName(getSender()), Helper.getName(self()));
@@ -183,11 +328,116 @@ public class ClientNode extends AbstractActor {
      */
     public void onReturnTimeoutOnWrite(ReturnTimeoutOnWrite msg) {
         this.isBusy = false;
+        routingManager.requestCompleted(getSender());
 
         // logging
         Logs.timeout(TimeoutType.WRITE, msg.requestId, Helper.getName(getSender()), Helper.getName(self()));
     }
 
+    /**
+     * Overloaded message handler.
+     * The data node rejected the request, the client can send a new one.
+     * @param msg Overloaded message
+     * @see Overloaded
+     */
+    public void onOverloaded(Overloaded msg) {
+        if (msg.requestId != null) {
+            requestManager.removeReadReq(msg.requestId);
+            this.isBusy = false;
+            routingManager.requestCompleted(getSender());
+        }
+
+        // logging
+        Logs.overloaded(msg.key, msg.requestId, msg.estimatedWait, Helper.getName(getSender()), Helper.getName(self()));
+    }
+
+    /**
+     * RateLimited message handler.
+     * The coordinator rejected the request, the client backs off for the suggested time.
+     * @param msg RateLimited message
+     * @see RateLimited
+     */
+    public void onRateLimited(RateLimited msg) {
+        if (msg.requestId != null) {
+            requestManager.removeReadReq(msg.requestId);
+            this.isBusy = false;
+            routingManager.requestCompleted(getSender());
+        }
+        this.backoffUntil = Math.max(this.backoffUntil, System.currentTimeMillis() + msg.retryAfter);
+
+        // logging
+        Logs.rate_limited(msg.key, msg.requestId, msg.scope.toString(), msg.retryAfter,
+                Helper.getName(getSender()), Helper.getName(self()));
+    }
+
+    /**
+     * RefreshRing message handler.
+     * Asks the ring to the data node.
+     * @param msg RefreshRing message
+     * @see RefreshRing
+     */
+    public void onRefreshRing(RefreshRing msg) {
+        msg.dataNode.tell(new AskRing(), self());
+    }
+
+    /**
+     * SendRing message handler.
+     * Keeps the ring, if more recent than the known one.
+     * @param msg SendRing message
+     * @see SendRing
+     */
+    public void onSendRing(SendRing msg) {
+        routingManager.updateRing(msg.group, msg.replicasCount, msg.epoch);
+    }
+
+    /**
+     * SetReadMode message handler.
+     * @param msg SetReadMode message
+     * @see SetReadMode
+     */
+    public void onSetReadMode(SetReadMode msg) {
+        this.directReads = msg.directReads;
+    }
+
+    /**
+     * StaleRing message handler.
+     * Updates the ring and sends the request again, to a replica of the key in the new ring.
+     * @param msg StaleRing message
+     * @see StaleRing
+     */
+    public void onStaleRing(StaleRing msg) {
+        routingManager.requestCompleted(getSender());
+        routingManager.updateRing(msg.ring.group, msg.ring.replicasCount, msg.ring.epoch);
+        int epoch = routingManager.getEpoch();
+
+        Integer key;
+        Object request;
+        if (msg.request instanceof AskReadData read) {
+            key = read.key;
+            request = new AskReadData(read.key, read.requestId, epoch, read.directReply);
+        } else if (msg.request instanceof AskUpdateData update) {
+            key = update.key;
+            request = new AskUpdateData(update.key, update.value, update.requestId, epoch);
+        } else if (msg.request instanceof AskWriteData write) {
+            key = write.key;
+            request = new AskWriteData(write.key, write.value, epoch);
+        } else {
+            return;
+        }
+        ActorRef coordinator = routingManager.pickCoordinator(key);
+        coordinator.tell(request, self());
+        if (!(request instanceof AskWriteData)) {
+            routingManager.requestSent(coordinator);
+        }
+        if (request instanceof AskReadData direct && requestManager.isTimeoutOnRead(direct.requestId)) {
+            // a direct read keeps its timeout, only the coordinator changes
+            requestManager.newReadReq(direct.requestId, coordinator);
+        }
+
+        // logging
+        Logs.redirect(key, epoch, Helper.getName(getSender()), Helper.getName(coordinator));
+    }
+
     /* ------- DEBUG & TESTING ------- */
 
     /**
@@ -222,10 +472,18 @@ public class ClientNode extends AbstractActor {
                 .match(ClientWrite.class, this::onClientWrite)
                 .match(ClientRead.class, this::onClientRead)
                 .match(SendRead2Client.class, this::onSendRead2Client)
+                .match(SendRead.class, this::onSendRead)
+                .match(TimeoutOnRead.class, this::onTimeoutOnRead)
                 .match(ClientUpdate.class, this::onClientUpdate)
                 .match(ReturnUpdate.class, this::onReturnUpdate)
                 .match(ReturnTimeoutOnRead.class, this::onReturnTimeoutOnRead)
                 .match(ReturnTimeoutOnWrite.class, this::onReturnTimeoutOnWrite)
+                .match(Overloaded.class, this::onOverloaded)
+                .match(RateLimited.class, this::onRateLimited)
+                .match(RefreshRing.class, this::onRefreshRing)
+                .match(SendRing.class, this::onSendRing)
+                .match(StaleRing.class, this::onStaleRing)
+                .match(SetReadMode.class, this::onSetReadMode)
                 .match(StatusRequest.class, this::onStatusRequest) // ----- DEBUG -------
                 .build();
     }
@@ -0,0 +1,94 @@
+package it.unitn.ds1.actors;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import akka.actor.*;
+import it.unitn.ds1.actors.DataNode.*;
+import it.unitn.ds1.utils.Profile;
+
+/**
+ * Client Proxy
+ * Actor that sends the requests of a KeyValueClient, so that the client has one identity for the data nodes
+ * (e.g. one bucket of the rate limits) whatever the number of threads that use it.
+ * The client registers the future of a request before sending it with the proxy as sender,
+ * and the proxy completes the future with the reply of the same request identifier.
+ */
+public class ClientProxy extends AbstractActor {
+    //                     requestId, future reply
+    private final Map<String, CompletableFuture<Object>> pending;
+
+    public ClientProxy(Map<String, CompletableFuture<Object>> pending) {
+        this.pending = pending;
+    }
+
+    static public Props props(Map<String, CompletableFuture<Object>> pending) {
+        return Props.create(ClientProxy.class, () -> new ClientProxy(pending))
+                .withDispatcher(Profile.CLIENT_DISPATCHER);
+    }
+
+    /* ------- MESSAGES ------- */
+
+    /**
+     * StopProxy
+     * A message that stops the proxy, when the client is closed.
+     * It is sent by the client and received by the proxy.
+     */
+    public static class StopProxy implements Serializable {
+    }
+
+    /* ------- HANDLERS ------- */
+
+    /**
+     * Complete the future of a request with its reply.
+     * The replies of the requests that already timed out at the client are dropped.
+     * @param requestId the request identifier, null for the writes
+     * @param reply the reply
+     */
+    private void complete(String requestId, Object reply) {
+        if (requestId == null) {
+            return;
+        }
+        CompletableFuture<Object> future = pending.remove(requestId);
+        if (future != null) {
+            future.complete(reply);
+        }
+    }
+
+    /**
+     * StaleRing message handler.
+     * @param msg StaleRing message
+     * @see StaleRing
+     */
+    public void onStaleRing(StaleRing msg) {
+        if (msg.request instanceof AskReadData read) {
+            complete(read.requestId, msg);
+        } else if (msg.request instanceof AskUpdateData update) {
+            complete(update.requestId, msg);
+        }
+    }
+
+    /**
+     * StopProxy message handler.
+     * @param msg StopProxy message
+     * @see StopProxy
+     */
+    public void onStopProxy(StopProxy msg) {
+        getContext().stop(self());
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(SendRead2Client.class, msg -> complete(msg.requestId, msg))
+                .match(ReturnUpdate.class, msg -> complete(msg.requestId, msg))
+                .match(ReturnTimeoutOnRead.class, msg -> complete(msg.requestId, msg))
+                .match(ReturnTimeoutOnWrite.class, msg -> complete(msg.requestId, msg))
+                .match(Overloaded.class, msg -> complete(msg.requestId, msg))
+                .match(RateLimited.class, msg -> complete(msg.requestId, msg))
+                .match(StaleRing.class, this::onStaleRing)
+                .match(StopProxy.class, this::onStopProxy)
+                .build();
+    }
+}
@@ -0,0 +1,826 @@
+package it.unitn.ds1.actors;
+
+import akka.actor.*;
+import it.unitn.ds1.actors.DataNode.AckUpdate;
+import it.unitn.ds1.actors.DataNode.AskCrash;
+import it.unitn.ds1.actors.DataNode.AskReadCacheStatus;
+import it.unitn.ds1.actors.DataNode.AskReadData;
+import it.unitn.ds1.actors.DataNode.AskReadVersion;
+import it.unitn.ds1.actors.DataNode.AskUpdateData;
+import it.unitn.ds1.actors.DataNode.AskVersion;
+import it.unitn.ds1.actors.DataNode.BlindUpdate;
+import it.unitn.ds1.actors.DataNode.ChainUpdate;
+import it.unitn.ds1.actors.DataNode.ReadData;
+import it.unitn.ds1.actors.DataNode.ReturnTimeoutOnRead;
+import it.unitn.ds1.actors.DataNode.ReturnTimeoutOnWrite;
+import it.unitn.ds1.actors.DataNode.ReturnUpdate;
+import it.unitn.ds1.actors.DataNode.SendRead;
+import it.unitn.ds1.actors.DataNode.SendRead2Client;
+import it.unitn.ds1.actors.DataNode.SendReadVersion;
+import it.unitn.ds1.actors.DataNode.SendVersion;
+import it.unitn.ds1.actors.DataNode.SequenceUpdate;
+import it.unitn.ds1.actors.DataNode.SetReadCache;
+import it.unitn.ds1.actors.DataNode.TimeoutOnRead;
+import it.unitn.ds1.actors.DataNode.TimeoutOnUpdate;
+import it.unitn.ds1.actors.DataNode.UpdateData;
+import it.unitn.ds1.actors.DataNode.WriteMode;
+import it.unitn.ds1.logger.Logs;
+import it.unitn.ds1.managers.DataManager.Data;
+import it.unitn.ds1.managers.PartitionManager;
+import it.unitn.ds1.managers.ReadCache;
+import it.unitn.ds1.managers.RequestManager;
+import it.unitn.ds1.utils.Helper;
+import it.unitn.ds1.utils.HybridClock;
+import it.unitn.ds1.utils.Profile;
+import scala.concurrent.ExecutionContextExecutor;
+import scala.concurrent.duration.Duration;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coordinator
+ * Actor that coordinates the client requests received by a data node.
+ * It is a child of the data node, that keeps a pool of coordinators and routes the requests by key,
+ * so that the quorum bookkeeping does not delay the replica operations served by the node.
+ * The concurrent requests of a key are coalesced: a read joins a quorum read of the key started shortly before,
+ * and the version quorum updates of a key run one round at a time, for all the waiting ones.
+ * With the read cache enabled, the coordinator keeps the last value read for the popular keys:
+ * a value checked shortly before is served as it is, otherwise the replicas are only asked for its version.
+ * The coordinator drops a cached key when it updates it.
+ * The data node resolves the replicas of the key, the coordinator talks to them directly.
+ * When the data node is itself a replica, the coordinator sends the operation to the partition that owns the key,
+ * skipping the mailbox of the node.
+ */
+public class Coordinator extends AbstractActor {
+    private static final int READ_COALESCING_WINDOW = 20; // in ms, age of an in-flight read that new reads can join
+    private static final int READ_CACHE_CAPACITY = 0; // items cached by default, 0 to disable the cache
+    private static final int READ_CACHE_FRESHNESS = 20; // in ms, age of a version check that serves a cached value
+
+    private final int readQuorum;
+    private final int maxTimeout; // in ms
+    private final String nodeName; // name of the parent data node, used in the logs
+    private final RequestManager requestManager;
+    private final PartitionManager localPartitions; // partitions of the parent data node
+    private final HybridClock clock; // stamps the updates
+    private final ReadCache readCache;
+    //                    requestId, replicas to write once the quorum is reached
+    private final HashMap<String, List<ActorRef>> updateReplicas;
+    //                    requestId, replicas suspected to be down
+    private final HashMap<String, Set<ActorRef>> updateSuspected;
+    //                    requestId, timestamp of a blind or sequenced update
+    private final HashMap<String, Long> updateTimestamps;
+    //                    key, the last read started
+    private final HashMap<Integer, CoordinateRead> readsInFlight;
+    //                    requestId, the read followed by the reads that joined it, answered with its value
+    private final HashMap<String, List<CoordinateRead>> readGroups;
+    //                    requestId, check of a cached value
+    private final HashMap<String, VersionCheck> versionChecks;
+    //                    requestId of the reads of a key updated while in flight, whose value is not cached
+    private final HashSet<String> staleReads;
+    //                    key, requestId of the version quorum update in flight
+    private final HashMap<Integer, String> updatesInFlight;
+    //                    key, updates waiting for the one in flight, in arrival order
+    private final HashMap<Integer, List<CoordinateUpdate>> pendingUpdates;
+    //                    requestId, updates coalesced with it, answered with its version
+    private final HashMap<String, List<CoordinateUpdate>> batches;
+
+    public Coordinator(int writeQuorum, int readQuorum, int maxTimeout, String nodeName, List<ActorRef> partitions) {
+        this.readQuorum = readQuorum;
+        this.maxTimeout = maxTimeout;
+        this.nodeName = nodeName;
+        this.requestManager = new RequestManager(writeQuorum, readQuorum);
+        this.localPartitions = new PartitionManager(partitions);
+        this.clock = new HybridClock();
+        this.readCache = new ReadCache(READ_CACHE_CAPACITY, READ_CACHE_FRESHNESS);
+        this.updateReplicas = new HashMap<>();
+        this.updateSuspected = new HashMap<>();
+        this.updateTimestamps = new HashMap<>();
+        this.readsInFlight = new HashMap<>();
+        this.readGroups = new HashMap<>();
+        this.versionChecks = new HashMap<>();
+        this.staleReads = new HashSet<>();
+        this.updatesInFlight = new HashMap<>();
+        this.pendingUpdates = new HashMap<>();
+        this.batches = new HashMap<>();
+    }
+
+    static public Props props(int writeQuorum, int readQuorum, int maxTimeout, String nodeName,
+                              List<ActorRef> partitions) {
+        return Props.create(Coordinator.class, () -> new Coordinator(writeQuorum, readQuorum, maxTimeout, nodeName,
+                partitions)).withDispatcher(Profile.COORDINATOR_DISPATCHER);
+    }
+
+    /**
+     * Get the dispatcher that runs the scheduled messages.
+     * @return the timer dispatcher
+     */
+    private ExecutionContextExecutor timers() {
+        return getContext().system().dispatchers().lookup(Profile.TIMER_DISPATCHER);
+    }
+
+    /**
+     * Get the actor that serves an operation on a replica.
+     * The operations on the parent data node go straight to the partition that owns the key.
+     * @param replica the replica
+     * @param key the key of the operation
+     * @return the replica, or the local partition
+     */
+    private ActorRef route(ActorRef replica, Integer key) {
+        return replica.equals(getContext().getParent()) ? localPartitions.getPartition(key) : replica;
+    }
+
+    /* ------- MESSAGES ------- */
+
+    /**
+     * CoordinateRead
+     * A message that hands a read request to a coordinator, with the replicas to ask.
+     * It is sent by the data node and received by one of its coordinators.
+     */
+    public static class CoordinateRead implements Serializable {
+        public final AskReadData request;
+        public final ActorRef client;
+        public final List<ActorRef> replicas;
+        public final boolean tailOnly; // the only replica is the tail of the chain, its reply is the result
+
+        /**
+         * @param request the request of the client
+         * @param client the client
+         * @param replicas the available replicas of the key
+         * @param tailOnly true if the replica is the tail of the chain
+         */
+        public CoordinateRead(AskReadData request, ActorRef client, List<ActorRef> replicas, boolean tailOnly) {
+            this.request = request;
+            this.client = client;
+            this.replicas = Collections.unmodifiableList(new ArrayList<>(replicas));
+            this.tailOnly = tailOnly;
+        }
+    }
+
+    /**
+     * CoordinateUpdate
+     * A message that hands an update request to a coordinator, with the replicas to ask and to write.
+     * It is sent by the data node and received by one of its coordinators.
+     */
+    public static class CoordinateUpdate implements Serializable {
+        public final AskUpdateData request;
+        public final ActorRef client;
+        public final List<ActorRef> availableReplicas;
+        public final List<ActorRef> replicas;
+        public final Set<ActorRef> suspected;
+        public final WriteMode mode;
+        public final int epoch; // epoch of the range of the key at the data node, the fence of the primary
+
+        /**
+         * @param request the request of the client
+         * @param client the client
+         * @param availableReplicas the available replicas of the key, asked for the version
+         * @param replicas the replicas of the key, that receive the update
+         * @param suspected the replicas suspected to be down, that need a hint
+         * @param mode how to perform the update
+         * @param epoch the epoch of the range of the key at the data node
+         */
+        public CoordinateUpdate(AskUpdateData request, ActorRef client, List<ActorRef> availableReplicas,
+                                List<ActorRef> replicas, Set<ActorRef> suspected, WriteMode mode, int epoch) {
+            this.request = request;
+            this.client = client;
+            this.availableReplicas = Collections.unmodifiableList(new ArrayList<>(availableReplicas));
+            this.replicas = Collections.unmodifiableList(new ArrayList<>(replicas));
+            this.suspected = Collections.unmodifiableSet(new HashSet<>(suspected));
+            this.mode = mode;
+            this.epoch = epoch;
+        }
+    }
+
+    /**
+     * RequestCompleted
+     * A message that reports the latency of a completed client request.
+     * It is sent by a coordinator and received by its data node.
+     */
+    public static class RequestCompleted implements Serializable {
+        public final long latency;
+
+        /**
+         * @param latency the latency of the request in ms
+         */
+        public RequestCompleted(long latency) {
+            this.latency = latency;
+        }
+    }
+
+    /**
+     * AddHint
+     * A message that stores a hint for a replica that may miss an update.
+     * It is sent by a coordinator and received by its data node.
+     */
+    public static class AddHint implements Serializable {
+        public final ActorRef target;
+        public final Integer key;
+        public final Data data;
+
+        /**
+         * @param target the replica that may miss the update
+         * @param key the key of the data item
+         * @param data the data item
+         */
+        public AddHint(ActorRef target, Integer key, Data data) {
+            this.target = target;
+            this.key = key;
+            this.data = data;
+        }
+    }
+
+    /**
+     * ResumeCoordination
+     * A message that makes a coordinator serve requests again after its data node recovered.
+     * It is sent by the data node and received by its coordinators.
+     */
+    public static class ResumeCoordination implements Serializable {
+        public ResumeCoordination() {
+        }
+    }
+
+    /* ------- READ ------- */
+
+    /**
+     * VersionCheck
+     * A class that represents the check of a cached value against the version of the replicas.
+     */
+    static private class VersionCheck {
+        private final CoordinateRead read;
+        private final long startTime;
+        private int acks;
+
+        public VersionCheck(CoordinateRead read, long startTime) {
+            this.read = read;
+            this.startTime = startTime;
+            this.acks = 0;
+        }
+    }
+
+    /**
+     * CoordinateRead handler
+     * Sends a read request to the replicas of the key.
+     * Schedule the timeout message.
+     * If a read of the key started less than the coalescing window ago, the request joins it instead.
+     * If the key is cached, the value is sent to the client when its version was checked shortly before,
+     * otherwise the replicas are asked for the version of the item.
+     * @param msg CoordinateRead message
+     * @see CoordinateRead
+     */
+    public void onCoordinateRead(CoordinateRead msg) {
+        long now = System.currentTimeMillis();
+        CoordinateRead inFlight = readsInFlight.get(msg.request.key);
+        if (inFlight != null && inFlight.tailOnly == msg.tailOnly
+                && getReadAge(inFlight.request.requestId, now) <= READ_COALESCING_WINDOW) {
+            readGroups.get(inFlight.request.requestId).add(msg);
+
+            // logging
+            Logs.ask_read(msg.request.key, msg.request.requestId, Helper.getName(msg.client), nodeName);
+            return;
+        }
+
+        Data cached = readCache.lookup(msg.request.key);
+        if (cached != null && readCache.isFresh(msg.request.key, now)) {
+            readCache.recordHit();
+            msg.client.tell(new SendRead2Client(cached.getValue(), msg.request.requestId), getContext().getParent());
+
+            // logging
+            Logs.ask_read(msg.request.key, msg.request.requestId, Helper.getName(msg.client), nodeName);
+            return;
+        }
+
+        readsInFlight.put(msg.request.key, msg);
+        readGroups.put(msg.request.requestId, new ArrayList<>(List.of(msg)));
+        if (cached != null) {
+            versionChecks.put(msg.request.requestId, new VersionCheck(msg, now));
+            for (ActorRef node : msg.replicas) {
+                AskReadVersion request = new AskReadVersion(msg.request.key, msg.request.requestId);
+                route(node, msg.request.key).tell(request, self());
+            }
+        } else {
+            startRead(msg);
+        }
+
+        // logging
+        Logs.ask_read(msg.request.key, msg.request.requestId, Helper.getName(msg.client), nodeName);
+
+        getContext().system().scheduler().scheduleOnce(
+                Duration.create(maxTimeout, TimeUnit.MILLISECONDS),
+                getSelf(),
+                new TimeoutOnRead(msg.request.requestId),
+                timers(), getSelf()
+        );
+    }
+
+    /**
+     * Start a quorum read, asking the data to the replicas of the key.
+     * @param msg the read request
+     */
+    private void startRead(CoordinateRead msg) {
+        if (msg.tailOnly) {
+            requestManager.newReadReq(msg.request.requestId, msg.client, 1);
+        } else {
+            requestManager.newReadReq(msg.request.requestId, msg.client);
+        }
+        for (ActorRef node : msg.replicas) {
+            ReadData request = new ReadData(msg.request.key, msg.request.requestId);
+            route(node, msg.request.key).tell(request, self());
+        }
+    }
+
+    /**
+     * Get the time elapsed since a read in flight started, as a quorum read or as the check of a cached value.
+     * @param requestId the request identifier of the read
+     * @param now the current time in ms
+     * @return the elapsed time in ms
+     */
+    private long getReadAge(String requestId, long now) {
+        VersionCheck check = versionChecks.get(requestId);
+        return check != null ? now - check.startTime : requestManager.getReadLatency(requestId, now);
+    }
+
+    /**
+     * SendRead handler.
+     * Adds the data to the read quorum.
+     * If the quorum is reached, the data is sent to the client and cached.
+     * If the quorum is not reached, nothing happens.
+     * @param msg SendRead message
+     * @see SendRead
+     */
+    public void onSendRead(SendRead msg) {
+        switch (requestManager.addReadResp(msg.requestId, msg.data)) {
+            case OK -> {
+                ActorRef client = requestManager.getClientReadReq(msg.requestId);
+                String requestedValue = requestManager.getReadValue(msg.requestId);
+                Data requestedData = requestManager.getReadData(msg.requestId);
+                long now = System.currentTimeMillis();
+                long latency = requestManager.getReadLatency(msg.requestId, now);
+                requestManager.removeReadReq(msg.requestId);
+                SendRead2Client resp = new SendRead2Client(requestedValue, msg.requestId);
+                client.tell(resp, getContext().getParent());
+                getContext().getParent().tell(new RequestCompleted(latency), self());
+
+                // the value is checked as of the start of the read, unless the key was updated meanwhile
+                Integer key = readGroups.get(msg.requestId).get(0).request.key;
+                if (!staleReads.contains(msg.requestId)) {
+                    readCache.put(key, requestedData, now - latency);
+                }
+                for (CoordinateRead follower : completeRead(msg.requestId)) {
+                    SendRead2Client followerResp = new SendRead2Client(requestedValue, follower.request.requestId);
+                    follower.client.tell(followerResp, getContext().getParent());
+                }
+
+                // logging
+                Logs.read_reply(msg.data.getValue(), msg.data.getVersion(), msg.requestId, nodeName, client.path().name());
+            }
+            default -> {}
+        }
+    }
+
+    /**
+     * SendReadVersion handler.
+     * Checks the version of a replica against the cached one.
+     * If a quorum of replicas has the cached version, the cached value is sent to the client.
+     * If a replica has another version, the key is dropped from the cache and read from the replicas.
+     * @param msg SendReadVersion message
+     * @see SendReadVersion
+     */
+    public void onSendReadVersion(SendReadVersion msg) {
+        VersionCheck check = versionChecks.get(msg.requestId);
+        if (check == null) {
+            return;
+        }
+        clock.update(msg.timestamp);
+        Integer key = check.read.request.key;
+        Data cached = readCache.peek(key);
+        if (cached == null || !cached.getVersion().equals(msg.version) || cached.getTimestamp() != msg.timestamp) {
+            versionChecks.remove(msg.requestId);
+            readCache.invalidate(key);
+            readCache.recordMiss();
+            startRead(check.read);
+            return;
+        }
+
+        check.acks++;
+        if (check.acks >= (check.read.tailOnly ? 1 : readQuorum)) {
+            versionChecks.remove(msg.requestId);
+            readCache.markChecked(key, check.startTime);
+            readCache.recordHit();
+            ActorRef client = check.read.client;
+            client.tell(new SendRead2Client(cached.getValue(), msg.requestId), getContext().getParent());
+            for (CoordinateRead follower : completeRead(msg.requestId)) {
+                SendRead2Client followerResp = new SendRead2Client(cached.getValue(), follower.request.requestId);
+                follower.client.tell(followerResp, getContext().getParent());
+            }
+
+            // logging
+            Logs.read_reply(cached.getValue(), cached.getVersion(), msg.requestId, nodeName, client.path().name());
+        }
+    }
+
+    /**
+     * Complete a read: the reads of the key started from now on do not join it.
+     * @param requestId the request identifier of the read
+     * @return the reads that joined it
+     */
+    private List<CoordinateRead> completeRead(String requestId) {
+        staleReads.remove(requestId);
+        List<CoordinateRead> group = readGroups.remove(requestId);
+        if (group == null) {
+            return List.of();
+        }
+        CoordinateRead read = group.get(0);
+        readsInFlight.remove(read.request.key, read);
+        return group.subList(1, group.size());
+    }
+
+    /**
+     * Drop an updated key from the read cache.
+     * The value of a read of the key in flight is not cached, as it may precede the update,
+     * and the reads that arrive after the update do not join it: they start a new read.
+     * @param key the key
+     */
+    private void invalidateCached(Integer key) {
+        readCache.invalidate(key);
+        CoordinateRead inFlight = readsInFlight.remove(key);
+        if (inFlight != null) {
+            staleReads.add(inFlight.request.requestId);
+        }
+    }
+
+    /**
+     * TimeoutOnRead handler
+     * Forward timeout message to the client.
+     * @param msg TimeoutOnRead message
+     * @see TimeoutOnRead
+     */
+    public void onTimeoutOnRead(TimeoutOnRead msg) {
+        VersionCheck check = versionChecks.remove(msg.requestId);
+        if (check != null || requestManager.isTimeoutOnRead(msg.requestId)) {
+            ActorRef client;
+            if (check != null) {
+                client = check.read.client;
+            } else {
+                client = requestManager.getClientReadReq(msg.requestId);
+                requestManager.removeReadReq(msg.requestId);
+            }
+            client.tell(new ReturnTimeoutOnRead(msg.requestId), getContext().getParent());
+            for (CoordinateRead follower : completeRead(msg.requestId)) {
+                follower.client.tell(new ReturnTimeoutOnRead(follower.request.requestId), getContext().getParent());
+            }
+        }
+    }
+
+    /* ------- UPDATE ------- */
+
+    /**
+     * CoordinateUpdate handler.
+     * With the version quorum, an update of a key that already has one in flight waits for it to complete,
+     * and is then coalesced with the other waiting ones into a single update.
+     * @param msg CoordinateUpdate message
+     * @see CoordinateUpdate
+     */
+    public void onCoordinateUpdate(CoordinateUpdate msg) {
+        AskUpdateData request = msg.request;
+        if (msg.mode == WriteMode.QUORUM) {
+            if (updatesInFlight.containsKey(request.key)) {
+                pendingUpdates.computeIfAbsent(request.key, k -> new ArrayList<>()).add(msg);
+            } else {
+                updatesInFlight.put(request.key, request.requestId);
+                startUpdate(msg);
+            }
+        } else {
+            startUpdate(msg);
+        }
+
+        // logging
+        Logs.ask_update(request.key, request.value, request.requestId, Helper.getName(msg.client), nodeName);
+    }
+
+    /**
+     * Start an update.
+     * Asks the version to the available replicas of the key.
+     * On a blind write, stamps the update and sends it straight to all the replicas of the key.
+     * With a primary, stamps the update and sends it to the first available replica, that sequences it.
+     * With chain replication, stamps the update and sends it to the head of the chain of the available replicas.
+     * @param msg the update request
+     */
+    private void startUpdate(CoordinateUpdate msg) {
+        AskUpdateData request = msg.request;
+        invalidateCached(request.key);
+        if (msg.mode == WriteMode.CHAIN) {
+            // the tail acknowledges the update once the whole chain applied it
+            requestManager.newWriteReq(request.requestId, msg.client, request.key, request.value, 1);
+        } else {
+            requestManager.newWriteReq(request.requestId, msg.client, request.key, request.value);
+        }
+        updateReplicas.put(request.requestId, msg.replicas);
+        updateSuspected.put(request.requestId, msg.suspected);
+        switch (msg.mode) {
+            case BLIND -> {
+                long timestamp = clock.now();
+                updateTimestamps.put(request.requestId, timestamp);
+                for (ActorRef node : msg.replicas) {
+                    BlindUpdate data = new BlindUpdate(request.key, request.value, timestamp, request.requestId);
+                    route(node, request.key).tell(data, self());
+                }
+            }
+            case PRIMARY -> {
+                // the first available replica is the primary, the next one on the ring if the first is suspected
+                if (!msg.availableReplicas.isEmpty()) {
+                    long timestamp = clock.now();
+                    updateTimestamps.put(request.requestId, timestamp);
+                    ActorRef primary = msg.availableReplicas.get(0);
+                    List<ActorRef> backups = new ArrayList<>(msg.replicas);
+                    backups.remove(primary);
+                    SequenceUpdate data = new SequenceUpdate(request.key, request.value, timestamp,
+                            request.requestId, msg.epoch, backups);
+                    route(primary, request.key).tell(data, self());
+                }
+            }
+            case CHAIN -> {
+                if (!msg.availableReplicas.isEmpty()) {
+                    long timestamp = clock.now();
+                    updateTimestamps.put(request.requestId, timestamp);
+                    ActorRef head = msg.availableReplicas.get(0);
+                    ChainUpdate data = new ChainUpdate(request.key, request.value, null, timestamp,
+                            request.requestId, msg.epoch, msg.availableReplicas, self());
+                    route(head, request.key).tell(data, self());
+                }
+            }
+            default -> {
+                for (ActorRef node : msg.availableReplicas) {
+                    route(node, request.key).tell(new AskVersion(request.key, request.requestId), self());
+                }
+            }
+        }
+
+        getContext().system().scheduler().scheduleOnce(
+                Duration.create(maxTimeout, TimeUnit.MILLISECONDS),
+                getSelf(),
+                new TimeoutOnUpdate(request.requestId),
+                timers(), getSelf()
+        );
+    }
+
+    /**
+     * Complete an update: answer the requests coalesced with it and start the next batch of the key.
+     * The next batch writes the value of the last request received (last writer wins),
+     * and all its requests are answered with the resulting version.
+     * @param key the key of the update
+     * @param requestId the request identifier of the update
+     * @param version the new version, null if the update timed out
+     */
+    private void completeUpdate(Integer key, String requestId, Integer version) {
+        List<CoordinateUpdate> coalesced = batches.remove(requestId);
+        if (coalesced != null) {
+            for (CoordinateUpdate update : coalesced) {
+                Object resp = version != null
+                        ? new ReturnUpdate(version, update.request.requestId)
+                        : new ReturnTimeoutOnWrite(update.request.requestId);
+                update.client.tell(resp, getContext().getParent());
+            }
+        }
+        if (!requestId.equals(updatesInFlight.get(key))) {
+            return;
+        }
+        updatesInFlight.remove(key);
+        List<CoordinateUpdate> pending = pendingUpdates.remove(key);
+        if (pending != null) {
+            CoordinateUpdate last = pending.remove(pending.size() - 1);
+            updatesInFlight.put(key, last.request.requestId);
+            batches.put(last.request.requestId, pending);
+            startUpdate(last);
+        }
+    }
+
+    /**
+     * SendVersion handler.
+     * If the quorum is reached, send the update message with the new value and version.
+     * Return to the client the new version of the item.
+     * @param msg SendVersion message
+     * @see SendVersion
+     */
+    public void onSendVersion(SendVersion msg) {
+        clock.update(msg.timestamp);
+        switch (requestManager.addWriteResp(msg.requestId, msg.version)) {
+            case OK -> {
+                ActorRef client = requestManager.getClientWriteReq(msg.requestId);
+
+                Integer key = requestManager.getNewKeyOnWrite(msg.requestId);
+                String value = requestManager.getNewValueOnWrite(msg.requestId);
+                Integer version = requestManager.getVersionOnWrite(msg.requestId);
+                long latency = requestManager.getWriteLatency(msg.requestId, System.currentTimeMillis());
+                requestManager.removeWriteReq(msg.requestId);
+                List<ActorRef> replicas = updateReplicas.remove(msg.requestId);
+                Set<ActorRef> suspected = updateSuspected.remove(msg.requestId);
+
+                // increase the version to 1 in respect to the quored one
+                version += 1;
+                invalidateCached(key);
+                long timestamp = clock.now();
+                // send the fetched version to the client
+                ReturnUpdate resp = new ReturnUpdate(version, msg.requestId);
+                client.tell(resp, getContext().getParent());
+                getContext().getParent().tell(new RequestCompleted(latency), self());
+
+                // tell all data nodes to write the updated data
+                for (ActorRef node : replicas) {
+                    UpdateData data = new UpdateData(key, value, version, timestamp);
+                    route(node, key).tell(data, self());
+
+                    // keep a hint for the replicas that may miss the update
+                    if (suspected.contains(node)) {
+                        Data hint = new Data(value, version, timestamp);
+                        getContext().getParent().tell(new AddHint(node, key, hint), self());
+                    }
+                }
+                // the next batch of the key asks the version after the replicas received this update
+                completeUpdate(key, msg.requestId, version);
+
+                // logging
+                Logs.version_reply(msg.version, msg.requestId, Helper.getName(getSender()), nodeName);
+            }
+
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * AckUpdate handler.
+     * Adds the acknowledgment of a blind, sequenced or chained update to the write quorum.
+     * If the quorum is reached, returns the version to the client and leaves a hint for the suspected replicas.
+     * @param msg AckUpdate message
+     * @see AckUpdate
+     */
+    public void onAckUpdate(AckUpdate msg) {
+        clock.update(msg.timestamp);
+        switch (requestManager.addWriteResp(msg.requestId, msg.version)) {
+            case OK -> {
+                ActorRef client = requestManager.getClientWriteReq(msg.requestId);
+
+                Integer key = requestManager.getNewKeyOnWrite(msg.requestId);
+                String value = requestManager.getNewValueOnWrite(msg.requestId);
+                Integer version = requestManager.getVersionOnWrite(msg.requestId);
+                long latency = requestManager.getWriteLatency(msg.requestId, System.currentTimeMillis());
+                requestManager.removeWriteReq(msg.requestId);
+                updateReplicas.remove(msg.requestId);
+                Set<ActorRef> suspected = updateSuspected.remove(msg.requestId);
+                long timestamp = updateTimestamps.remove(msg.requestId);
+                invalidateCached(key);
+
+                client.tell(new ReturnUpdate(version, msg.requestId), getContext().getParent());
+                getContext().getParent().tell(new RequestCompleted(latency), self());
+
+                // keep a hint for the replicas that may miss the update
+                for (ActorRef node : suspected) {
+                    Data hint = new Data(value, version, timestamp);
+                    getContext().getParent().tell(new AddHint(node, key, hint), self());
+                }
+
+                // logging
+                Logs.version_reply(msg.version, msg.requestId, Helper.getName(getSender()), nodeName);
+            }
+
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * TimeoutOnUpdate handler.
+     * Forward timeout message to the client.
+     * @param msg TimeoutOnUpdate message
+     * @see TimeoutOnUpdate
+     */
+    public void onTimeoutOnUpdate(TimeoutOnUpdate msg) {
+        if (requestManager.isTimeoutOnWrite(msg.requestId)) {
+            ActorRef client = requestManager.getClientWriteReq(msg.requestId);
+            Integer key = requestManager.getNewKeyOnWrite(msg.requestId);
+            requestManager.removeWriteReq(msg.requestId);
+            updateReplicas.remove(msg.requestId);
+            updateSuspected.remove(msg.requestId);
+            updateTimestamps.remove(msg.requestId);
+            client.tell(new ReturnTimeoutOnWrite(msg.requestId), getContext().getParent());
+            completeUpdate(key, msg.requestId, null);
+        }
+    }
+
+    /* ------- READ CACHE ------- */
+
+    /**
+     * SetReadCache handler.
+     * Changes the capacity of the read cache.
+     * @param msg SetReadCache message
+     * @see SetReadCache
+     */
+    public void onSetReadCache(SetReadCache msg) {
+        readCache.resize(msg.capacity);
+    }
+
+    /**
+     * AskReadCacheStatus handler.
+     * Prints the hit ratio and the memory use of the read cache.
+     * @param msg AskReadCacheStatus message
+     * @see AskReadCacheStatus
+     */
+    public void onAskReadCacheStatus(AskReadCacheStatus msg) {
+        Logs.read_cache(readCache.getHitRatio(), readCache.getHits(), readCache.getMisses(),
+                readCache.getEvictions(), readCache.size(), readCache.getCapacity(), readCache.getMemoryUsage(),
+                nodeName + "/" + Helper.getName(self()));
+    }
+
+    /* ------- CRASH ------- */
+
+    /**
+     * AskCrash handler.
+     * Stop serving the requests, like the data node.
+     * The read cache is emptied, as the keys may be updated while the node is down,
+     * and the clients of the pending reads and updates are answered with a timeout.
+     * @param msg AskCrash message
+     * @see AskCrash
+     */
+    public void onAskCrash(AskCrash msg) {
+        readCache.clear();
+        failReads();
+        failUpdates();
+        getContext().become(crashed());
+    }
+
+    /**
+     * Fail the reads in flight, with the reads that joined them, when the coordinator crashes.
+     * Their timeouts are dropped while crashed, so the reads would stay in flight and the next reads would join them.
+     */
+    private void failReads() {
+        Map<String, ActorRef> clients = requestManager.removeAllReadReqs();
+        for (List<CoordinateRead> group : readGroups.values()) {
+            for (CoordinateRead read : group) {
+                clients.put(read.request.requestId, read.client);
+            }
+        }
+        clients.forEach((requestId, client) ->
+                client.tell(new ReturnTimeoutOnRead(requestId), getContext().getParent()));
+        readsInFlight.clear();
+        readGroups.clear();
+        staleReads.clear();
+        versionChecks.clear();
+    }
+
+    /**
+     * Fail the updates in flight, coalesced or waiting, when the coordinator crashes.
+     * Their timeouts are dropped while crashed, so the keys would stay in flight and block the next updates.
+     */
+    private void failUpdates() {
+        List<CoordinateUpdate> waiting = new ArrayList<>();
+        batches.values().forEach(waiting::addAll);
+        pendingUpdates.values().forEach(waiting::addAll);
+        for (CoordinateUpdate update : waiting) {
+            update.client.tell(new ReturnTimeoutOnWrite(update.request.requestId), getContext().getParent());
+        }
+        requestManager.removeAllWriteReqs().forEach((requestId, client) ->
+                client.tell(new ReturnTimeoutOnWrite(requestId), getContext().getParent()));
+        updateReplicas.clear();
+        updateSuspected.clear();
+        updateTimestamps.clear();
+        updatesInFlight.clear();
+        pendingUpdates.clear();
+        batches.clear();
+    }
+
+    /**
+     * ResumeCoordination handler.
+     * Serve the requests again.
+     * @param msg ResumeCoordination message
+     * @see ResumeCoordination
+     */
+    public void onResumeCoordination(ResumeCoordination msg) {
+        getContext().become(createReceive());
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(CoordinateRead.class, this::onCoordinateRead)
+                .match(SendRead.class, this::onSendRead)
+                .match(SendReadVersion.class, this::onSendReadVersion)
+                .match(TimeoutOnRead.class, this::onTimeoutOnRead)
+                .match(CoordinateUpdate.class, this::onCoordinateUpdate)
+                .match(SendVersion.class, this::onSendVersion)
+                .match(AckUpdate.class, this::onAckUpdate)
+                .match(TimeoutOnUpdate.class, this::onTimeoutOnUpdate)
+                .match(SetReadCache.class, this::onSetReadCache)
+                .match(AskReadCacheStatus.class, this::onAskReadCacheStatus)
+                .match(AskCrash.class, this::onAskCrash)
+                .build();
+    }
+
+    final AbstractActor.Receive crashed() {
+        return receiveBuilder()
+                .match(ResumeCoordination.class, this::onResumeCoordination)
+                .matchAny(msg -> {})
+                .build();
+    }
+}
@@ -1,51 +1,187 @@
 package it.unitn.ds1.actors;
 
 import akka.actor.*;
-import it.unitn.ds1.logger.ErrorType;
+import it.unitn.ds1.actors.Coordinator.AddHint;
+import it.unitn.ds1.actors.Coordinator.CoordinateRead;
+import it.unitn.ds1.actors.Coordinator.CoordinateUpdate;
+import it.unitn.ds1.actors.Coordinator.RequestCompleted;
+import it.unitn.ds1.actors.Coordinator.ResumeCoordination;
+import it.unitn.ds1.actors.DataPartition.CollectItems;
+import it.unitn.ds1.actors.DataPartition.CollectKeys;
+import it.unitn.ds1.actors.DataPartition.CollectedItems;
+import it.unitn.ds1.actors.DataPartition.DropRanges;
+import it.unitn.ds1.actors.DataPartition.StoreItems;
 import it.unitn.ds1.managers.DataManager;
 import it.unitn.ds1.managers.GroupManager;
 import it.unitn.ds1.managers.GroupManager.DataNodeRef;
+import it.unitn.ds1.managers.GroupManager.KeyRange;
+import it.unitn.ds1.managers.GroupManager.MembershipDelta;
+import it.unitn.ds1.managers.HintManager;
 import it.unitn.ds1.managers.JoinManager;
-import it.unitn.ds1.managers.RequestManager;
+import it.unitn.ds1.managers.LeaveManager;
+import it.unitn.ds1.managers.LeaveManager.Batch;
+import it.unitn.ds1.managers.PartitionManager;
+import it.unitn.ds1.managers.RateLimiter;
+import it.unitn.ds1.managers.RebalanceGovernor;
+import it.unitn.ds1.managers.RebalanceGovernor.Transfer;
+import it.unitn.ds1.logger.ErrorType;
 import it.unitn.ds1.logger.Logs;
 import it.unitn.ds1.logger.TimeoutType;
 import it.unitn.ds1.utils.Helper;
+import it.unitn.ds1.utils.NodeMailbox;
+import it.unitn.ds1.utils.Profile;
+import scala.concurrent.ExecutionContextExecutor;
 import scala.concurrent.duration.Duration;
 
 import java.util.concurrent.TimeUnit;
 
 import it.unitn.ds1.managers.DataManager.Data;
-
-import java.util.stream.Collectors;
+import it.unitn.ds1.managers.DataManager.Stamp;
 
 import java.io.Serializable;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
 
 /**
  * DataNode
  * Actor that represents a data node in the distributed database
  */
 public class DataNode extends AbstractActor {
+    public static final int DEFAULT_PARTITIONS = 4; // partition actors that store the keys of a node
+    public static final int DEFAULT_COORDINATORS = 4; // coordinator actors that serve the client requests of a node
+    private static final int GOSSIP_INTERVAL = 500; // in ms
+    private static final int GOSSIP_FANOUT = 2; // nodes contacted at every gossip round
+    private static final int HEARTBEAT_INTERVAL = 200; // in ms
+    private static final int MAX_HINTS_PER_TARGET = 1000;
+    private static final int HINT_BATCH_SIZE = 100; // hints replayed in a single message
+    private static final int HINT_REPLAY_INTERVAL = 1000; // in ms
+    private static final int JOIN_CHUNK_SIZE = 64; // items streamed in a single message during the join
+    private static final int JOIN_DIGEST_CHUNK_SIZE = 512; // stamps streamed in a single message during the join
+    private static final int JOIN_MAX_RETRIES = 3; // retries before dropping a source that does not answer
+    private static final int LEAVE_BATCH_SIZE = 64; // items handed off in a single message during the leave
+    private static final int LEAVE_MAX_RETRIES = 3; // retries before aborting the leave
+    private static final int REBALANCE_TICK_INTERVAL = 100; // in ms
+    private static final long REBALANCE_BYTES_RATE = 1_000_000; // bytes per second spent on rebalancing
+    private static final long REBALANCE_MESSAGES_RATE = 200; // messages per second spent on rebalancing
+    private static final long REBALANCE_TARGET_LATENCY = 50; // client latency over which rebalancing slows down, in ms
+    private static final int MAX_CLIENT_QUEUE = 500; // client requests waiting in the mailbox over which new ones are rejected
+    private static final int MAX_CLIENT_WAIT = 250; // average mailbox wait of the client requests over which new ones are rejected, in ms
+    private static final double CLIENT_RATE = 1000; // requests per second accepted from every client
+    private static final double CLIENT_BURST = 100;
+    private static final double GLOBAL_RATE = 0; // requests per second accepted from all the clients, 0 for no limit
+    private static final double GLOBAL_BURST = 0;
+
     private final int maxTimeout; // in ms
     public final Integer nodeKey; // Node key
-    private final DataManager nodeData;
+    private final PartitionManager partitionManager;
     private final GroupManager groupManager;
-    private final RequestManager requestManager;
+    private final List<ActorRef> coordinators;
+    private final HintManager hintManager;
+    private final RebalanceGovernor rebalanceGovernor;
+    private final RateLimiter rateLimiter;
+    private WriteMode writeMode; // how the coordinators perform the updates
     private JoinManager joinManager;
-
-    public DataNode(int writeQuorum, int readQuorum, int replicas, int maxTimeout, int nodeKey) {
+    private LeaveManager leaveManager;
+    private Set<ActorRef> recoveryPeers; // peers that still have to send the data to recover
+    private Cancellable recoverTimer;
+    private Cancellable gossipTimer;
+    private Cancellable heartbeatTimer;
+    private Cancellable rebalanceTimer;
+
+    public DataNode(int writeQuorum, int readQuorum, int replicas, int maxTimeout, int nodeKey,
+                    int partitions, int coordinators) {
         this.maxTimeout = maxTimeout;
         this.nodeKey = nodeKey;
-        this.requestManager = new RequestManager(writeQuorum, readQuorum);
-        this.nodeData = new DataManager();
+        List<ActorRef> partitionRefs = new ArrayList<>();
+        for (int i = 0; i < partitions; i++) {
+            partitionRefs.add(getContext().actorOf(DataPartition.props(maxTimeout, Helper.getName(self())), "partition" + i));
+        }
+        this.partitionManager = new PartitionManager(partitionRefs);
+        this.coordinators = new ArrayList<>();
+        for (int i = 0; i < coordinators; i++) {
+            this.coordinators.add(getContext().actorOf(
+                    Coordinator.props(writeQuorum, readQuorum, maxTimeout, Helper.getName(self()), partitionRefs),
+                    "coordinator" + i));
+        }
         this.groupManager = new GroupManager(replicas);
+        this.hintManager = new HintManager(MAX_HINTS_PER_TARGET);
+        this.rebalanceGovernor = new RebalanceGovernor(REBALANCE_BYTES_RATE, REBALANCE_MESSAGES_RATE,
+                REBALANCE_TARGET_LATENCY, System.currentTimeMillis());
+        this.rateLimiter = new RateLimiter(CLIENT_RATE, CLIENT_BURST, GLOBAL_RATE, GLOBAL_BURST,
+                System.currentTimeMillis());
+        this.writeMode = WriteMode.QUORUM;
 
         // Logging
         System.out.println("INIT_NODE | Name: " + Helper.getName(self()) + ", key: " + nodeKey + " |");
     }
 
+    static public Props props(int writeQuorum, int readQuorum, int replicas, int maxTimeout, int nodeKey,
+                              int partitions, int coordinators) {
+        return Props.create(DataNode.class, () -> new DataNode(writeQuorum, readQuorum, replicas, maxTimeout, nodeKey,
+                partitions, coordinators)).withDispatcher(Profile.NODE_DISPATCHER);
+    }
+
     static public Props props(int writeQuorum, int readQuorum, int replicas, int maxTimeout, int nodeKey) {
-        return Props.create(DataNode.class, () -> new DataNode(writeQuorum, readQuorum, replicas, maxTimeout, nodeKey));
+        return props(writeQuorum, readQuorum, replicas, maxTimeout, nodeKey, DEFAULT_PARTITIONS, DEFAULT_COORDINATORS);
+    }
+
+    @Override
+    public void preStart() {
+        startMembershipTimers();
+
+        // start draining the rebalancing backlog
+        this.rebalanceTimer = getContext().system().scheduler().scheduleWithFixedDelay(
+                Duration.create(REBALANCE_TICK_INTERVAL, TimeUnit.MILLISECONDS),
+                Duration.create(REBALANCE_TICK_INTERVAL, TimeUnit.MILLISECONDS),
+                getSelf(),
+                new RebalanceTick(),
+                timers(), getSelf()
+        );
+    }
+
+    /**
+     * Start the periodic gossip and the heartbeats, stopped when the node leaves and started again if it joins back.
+     */
+    private void startMembershipTimers() {
+        // start the periodic membership gossip
+        this.gossipTimer = getContext().system().scheduler().scheduleWithFixedDelay(
+                Duration.create(GOSSIP_INTERVAL, TimeUnit.MILLISECONDS),
+                Duration.create(GOSSIP_INTERVAL, TimeUnit.MILLISECONDS),
+                getSelf(),
+                new GossipTick(),
+                timers(), getSelf()
+        );
+
+        // start the heartbeats towards the neighbors
+        this.heartbeatTimer = getContext().system().scheduler().scheduleWithFixedDelay(
+                Duration.create(HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS),
+                Duration.create(HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS),
+                getSelf(),
+                new HeartbeatTick(),
+                timers(), getSelf()
+        );
+    }
+
+    @Override
+    public void postStop() {
+        if (gossipTimer != null) {
+            gossipTimer.cancel();
+        }
+        if (heartbeatTimer != null) {
+            heartbeatTimer.cancel();
+        }
+        if (rebalanceTimer != null) {
+            rebalanceTimer.cancel();
+        }
+    }
+
+    /**
+     * Get the dispatcher that runs the scheduled messages.
+     * @return the timer dispatcher
+     */
+    private ExecutionContextExecutor timers() {
+        return getContext().system().dispatchers().lookup(Profile.TIMER_DISPATCHER);
     }
 
     /**
@@ -60,13 +196,138 @@ public class DataNode extends AbstractActor {
      */
     private void recover() {
         getContext().become(createReceive());
+        for (ActorRef coordinator : coordinators) {
+            coordinator.tell(new ResumeCoordination(), self());
+        }
+    }
+
+    /**
+     * Admission control of the client requests.
+     * Redirects the request with a StaleRing reply when the client routed it with an old ring epoch,
+     * rejects it with a RateLimited reply when the client exceeded its rate (or the global one),
+     * with an Overloaded reply when too many client requests are waiting in the mailbox,
+     * or when they wait too long on average.
+     * @param request the client request
+     * @param key the key of the request
+     * @param requestId the request identifier, null for the writes
+     * @param epoch the ring epoch known by the client, -1 if the client does not route by key
+     * @return true if the request is accepted, false otherwise
+     */
+    private boolean admit(Object request, Integer key, String requestId, int epoch) {
+        if (epoch >= 0 && epoch < groupManager.getEpoch()) {
+            getSender().tell(new StaleRing(request, currentRing()), self());
+            return false;
+        }
+
+        RateLimiter.Scope scope = rateLimiter.tryAcquire(getSender(), System.currentTimeMillis());
+        if (scope != null) {
+            getSender().tell(new RateLimited(key, requestId, scope, rateLimiter.getRetryAfter(getSender(), scope)), self());
+            return false;
+        }
+
+        int depth = NodeMailbox.getClientDepth(self());
+        long wait = Math.round(NodeMailbox.getClientWait(self()));
+        if (depth > MAX_CLIENT_QUEUE || wait > MAX_CLIENT_WAIT) {
+            getSender().tell(new Overloaded(key, requestId, wait), self());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the current ring, as sent to the clients.
+     * @return the ring message
+     */
+    private SendRing currentRing() {
+        return new SendRing(groupManager.getGroup(), groupManager.replicasCount, groupManager.getEpoch());
+    }
+
+    /**
+     * Get the coordinator of the pool that serves the requests of a key,
+     * so that the concurrent requests of the same key meet in the same coordinator.
+     * @param key the key of the request
+     * @return the coordinator
+     */
+    private ActorRef getCoordinator(Integer key) {
+        return coordinators.get(Math.floorMod(key, coordinators.size()));
+    }
+
+    /**
+     * Drop the items of the ranges that this node is not responsible anymore.
+     * Only the ranges lost with respect to the given ones are scanned.
+     * Nothing is dropped while the node is not part of the group (i.e. joining or leaving).
+     * @param oldRanges the ranges the node was responsible for before the membership change
+     */
+    private void dropLostRanges(List<KeyRange> oldRanges) {
+        if (!groupManager.isMember(self())) {
+            return;
+        }
+        List<KeyRange> lostRanges = GroupManager.subtractRanges(oldRanges, groupManager.getOwnedRanges(self()));
+        if (lostRanges.isEmpty()) {
+            return;
+        }
+        for (ActorRef partition : partitionManager.getPartitions()) {
+            partition.tell(new DropRanges(lostRanges), self());
+        }
+    }
+
+    /**
+     * Monitor only the current neighbors after a membership change.
+     */
+    private void pruneMonitored() {
+        if (groupManager.isMember(self())) {
+            groupManager.retainMonitored(groupManager.findNeighbors(nodeKey));
+        }
     }
 
     /**
-     * Drop the items that this node is not responsible anymore
+     * Store a set of items in the partitions that own them, keeping the most recent versions.
+     * @param items the items to store
      */
-    private void dropUselessItems() {
-        nodeData.getKeys().removeIf(item -> !groupManager.findDataNodes(item).contains(self()));
+    private void storeItems(Map<Integer, Data> items) {
+        partitionManager.splitByPartition(items).forEach((partition, partitionItems) ->
+                partition.tell(new StoreItems(partitionItems), self()));
+    }
+
+    /**
+     * Collect items from every partition.
+     * @param request the collect request to send to the partitions, given the gather identifier
+     * @param limit the maximum number of items kept, the ones with the lowest keys
+     * @param callback the action run with the collected items, sorted by key
+     */
+    private void gatherItems(IntFunction<Object> request, int limit, Consumer<SortedMap<Integer, Data>> callback) {
+        int gatherId = partitionManager.startGather(limit, callback);
+        for (ActorRef partition : partitionManager.getPartitions()) {
+            partition.tell(request.apply(gatherId), self());
+        }
+    }
+
+    /**
+     * Send a rebalancing message (join, leave, recovery or hints replay) within the limits of the governor.
+     * If the limits are exceeded the message is put in the backlog and sent at a later tick.
+     * @param target the receiver of the message
+     * @param msg the message
+     * @param bytes the estimated size of the message
+     */
+    private void sendRebalance(ActorRef target, Object msg, int bytes) {
+        sendRebalance(target, msg, bytes, null);
+    }
+
+    /**
+     * Send a rebalancing message with an identity, queued at most once when it is sent again after a timeout.
+     * @param target the receiver
+     * @param msg the message
+     * @param bytes the estimated size of the message
+     * @param id the identity of the message among the ones of its type sent to the target
+     * @return true if the message has been sent now, false if it waits in the backlog
+     */
+    private Boolean sendRebalance(ActorRef target, Object msg, int bytes, Object id) {
+        if (rebalanceGovernor.tryAcquire(bytes, System.currentTimeMillis())) {
+            target.tell(msg, self());
+            return true;
+        }
+        rebalanceGovernor.enqueue(new Transfer(target, msg, bytes, id));
+        return false;
     }
 
     /* ------- MESSAGES ------- */
@@ -93,14 +354,25 @@ public class DataNode extends AbstractActor {
     public static class AskWriteData implements Serializable {
         public final Integer key;
         public final String value;
+        public final int epoch; // ring epoch known by the client, -1 if the client does not route by key
 
         /**
          * @param key the key to write
          * @param value the value to write
          */
         public AskWriteData(Integer key, String value) {
+            this(key, value, -1);
+        }
+
+        /**
+         * @param key the key to write
+         * @param value the value to write
+         * @param epoch the ring epoch known by the client
+         */
+        public AskWriteData(Integer key, String value, int epoch) {
             this.key = key;
             this.value = value;
+            this.epoch = epoch;
         }
     }
 
@@ -133,14 +405,37 @@ public class DataNode extends AbstractActor {
     public static class AskReadData implements Serializable {
         public final Integer key;
         public final String requestId;
+        public final int epoch; // ring epoch known by the client, -1 if the client does not route by key
+        public final boolean directReply; // the replicas reply to the client, that counts the quorum
 
         /**
          * @param key the key to read
          * @param requestId the request identifier
          */
         public AskReadData(Integer key, String requestId) {
+            this(key, requestId, -1);
+        }
+
+        /**
+         * @param key the key to read
+         * @param requestId the request identifier
+         * @param epoch the ring epoch known by the client
+         */
+        public AskReadData(Integer key, String requestId, int epoch) {
+            this(key, requestId, epoch, false);
+        }
+
+        /**
+         * @param key the key to read
+         * @param requestId the request identifier
+         * @param epoch the ring epoch known by the client
+         * @param directReply true if the replicas reply straight to the client
+         */
+        public AskReadData(Integer key, String requestId, int epoch, boolean directReply) {
             this.key = key;
             this.requestId = requestId;
+            this.epoch = epoch;
+            this.directReply = directReply;
         }
     }
 
@@ -152,14 +447,25 @@ public class DataNode extends AbstractActor {
     public static class ReadData implements Serializable {
         public final Integer key;
         public final String requestId;
+        public final ActorRef replyTo; // null to reply to the sender
 
         /**
          * @param key the key to read
          * @param requestId the request identifier
          */
         public ReadData(Integer key, String requestId) {
+            this(key, requestId, null);
+        }
+
+        /**
+         * @param key the key to read
+         * @param requestId the request identifier
+         * @param replyTo the actor that receives the data, the client on direct reads
+         */
+        public ReadData(Integer key, String requestId, ActorRef replyTo) {
             this.key = key;
             this.requestId = requestId;
+            this.replyTo = replyTo;
         }
     }
 
@@ -244,6 +550,7 @@ public class DataNode extends AbstractActor {
         public final Integer key;
         public final String value;
         public final String requestId;
+        public final int epoch; // ring epoch known by the client, -1 if the client does not route by key
 
         /**
          * @param key the key to update
@@ -251,9 +558,20 @@ public class DataNode extends AbstractActor {
          * @param requestId the request identifier
          */
         public AskUpdateData(Integer key, String value, String requestId) {
+            this(key, value, requestId, -1);
+        }
+
+        /**
+         * @param key the key to update
+         * @param value the new value
+         * @param requestId the request identifier
+         * @param epoch the ring epoch known by the client
+         */
+        public AskUpdateData(Integer key, String value, String requestId, int epoch) {
             this.key = key;
             this.value = value;
             this.requestId = requestId;
+            this.epoch = epoch;
         }
     }
 
@@ -283,14 +601,58 @@ public class DataNode extends AbstractActor {
      */
     public static class SendVersion implements Serializable {
         public final Integer version;
+        public final long timestamp;
+        public final String requestId;
+
+        /**
+         * @param version the actual version
+         * @param timestamp the actual timestamp, that moves the clock of the coordinator
+         * @param requestId the request identifier
+         */
+        public SendVersion(Integer version, long timestamp, String requestId) {
+            this.version = version;
+            this.timestamp = timestamp;
+            this.requestId = requestId;
+        }
+    }
+
+    /**
+     * AskReadVersion
+     * A message used to check the version of a data item cached by the coordinator, without locking it.
+     * It is sent by the coordinator and received by the proper datanode.
+     */
+    public static class AskReadVersion implements Serializable {
+        public final Integer key;
+        public final String requestId;
+
+        /**
+         * @param key the key to check
+         * @param requestId the request identifier
+         */
+        public AskReadVersion(Integer key, String requestId) {
+            this.key = key;
+            this.requestId = requestId;
+        }
+    }
+
+    /**
+     * SendReadVersion
+     * A message used to return the version of a data item, checked against the one cached by the coordinator.
+     * It is sent by the data nodes and received by the coordinator.
+     */
+    public static class SendReadVersion implements Serializable {
+        public final Integer version;
+        public final long timestamp;
         public final String requestId;
 
         /**
          * @param version the actual version
+         * @param timestamp the actual timestamp
          * @param requestId the request identifier
          */
-        public SendVersion(Integer version, String requestId) {
+        public SendReadVersion(Integer version, long timestamp, String requestId) {
             this.version = version;
+            this.timestamp = timestamp;
             this.requestId = requestId;
         }
     }
@@ -347,197 +709,650 @@ public class DataNode extends AbstractActor {
     }
 
     /**
-     * UpdateData
-     * A message that tells the data node to perform the update.
-     * It is sent by the coordinator and received by the proper data node.
+     * Overloaded
+     * A message that rejects a client request because the data node is overloaded.
+     * It is sent by the data node (or by its mailbox, when it is full) and received by the client.
      */
-    public static class UpdateData implements Serializable {
+    public static class Overloaded implements Serializable {
         public final Integer key;
-        public final String value;
-        public final Integer version;
+        public final String requestId;
+        public final long estimatedWait; // in ms
 
         /**
-         * @param key the key to update
-         * @param value the new value
-         * @param version the new version
+         * @param key the key of the rejected request
+         * @param requestId the request identifier, null for the writes
+         * @param estimatedWait the time the request would have waited in the mailbox, in ms
          */
-        public UpdateData(Integer key, String value, Integer version) {
+        public Overloaded(Integer key, String requestId, long estimatedWait) {
             this.key = key;
-            this.value = value;
-            this.version = version;
+            this.requestId = requestId;
+            this.estimatedWait = estimatedWait;
         }
     }
 
-    /* ------- JOIN ------- */
-
     /**
-     * AskToJoin
-     * A message that starts the join operation.
-     * It is sent by the system and received by the joining node
+     * RateLimited
+     * A message that rejects a client request because the client, or all the clients together,
+     * exceeded the rate of requests accepted by the coordinator.
+     * It is sent by the coordinator and received by the client.
      */
-    public static class AskToJoin implements Serializable {
-        public ActorRef bootstrappingNode;
+    public static class RateLimited implements Serializable {
+        public final Integer key;
+        public final String requestId;
+        public final RateLimiter.Scope scope;
+        public final long retryAfter; // in ms
 
         /**
-         * @param node the ActorRef of the boostrap node
+         * @param key the key of the rejected request
+         * @param requestId the request identifier, null for the writes
+         * @param scope the limit that rejected the request
+         * @param retryAfter the time the client should wait before sending a new request, in ms
          */
-        public AskToJoin(ActorRef node) {
-            this.bootstrappingNode = node;
-        }
-    }
-
-    /**
-     * AskNodeGroup
-     * A message that ask for the actual group of nodes to the boostrap node.
-     * It is sent by the joining data node and received by the boostrap node.
-     */
-    public static class AskNodeGroup implements Serializable {
-        public AskNodeGroup() {
+        public RateLimited(Integer key, String requestId, RateLimiter.Scope scope, long retryAfter) {
+            this.key = key;
+            this.requestId = requestId;
+            this.scope = scope;
+            this.retryAfter = retryAfter;
         }
     }
 
     /**
-     * SendNodeGroup
-     * A message that returns the group of nodes to the joining data node.
-     * It is sent by the bootstrap node and received by the joining data node.
+     * SetRateLimits
+     * A message that changes the rate of client requests accepted by the coordinator.
+     * It is sent by the system and received by a data node.
      */
-    public static class SendNodeGroup implements Serializable {
-        public final List<DataNodeRef> group;
+    public static class SetRateLimits implements Serializable {
+        public final double clientRate;
+        public final double clientBurst;
+        public final double globalRate;
+        public final double globalBurst;
 
         /**
-         * @param group the list of ActorRef that form the group
+         * @param clientRate the requests per second of every client, 0 to disable the limit
+         * @param clientBurst the requests a client can send at once
+         * @param globalRate the requests per second of all the clients, 0 to disable the limit
+         * @param globalBurst the requests all the clients can send at once
          */
-        public SendNodeGroup(List<DataNodeRef> group) {
-            this.group = Collections.unmodifiableList(new ArrayList<>(group));
+        public SetRateLimits(double clientRate, double clientBurst, double globalRate, double globalBurst) {
+            this.clientRate = clientRate;
+            this.clientBurst = clientBurst;
+            this.globalRate = globalRate;
+            this.globalBurst = globalBurst;
         }
     }
 
     /**
-     * AskItems
-     * A message that requests the set of keys.
-     * It is sent by the joining node and received by its neighbors.
+     * WriteMode
+     * How the coordinator performs the updates.
      */
-    public static class AskItems implements Serializable {
-        public AskItems() {
-        }
+    public enum WriteMode {
+        QUORUM, // ask the version to a quorum, locking the item, then send the next version
+        BLIND, // stamp the update with a hybrid logical clock and send it to the replicas, the last writer wins
+        PRIMARY, // the first available replica of the key sequences the versions and replicates to the others
+        CHAIN // the update flows along the available replicas, from the head to the tail, that acknowledges it
     }
 
     /**
-     * A message that returns the set of the keys of the node.
-     * It is received by the joining node and sent by one of its neighbors.
+     * SetWriteMode
+     * A message that changes how the coordinator performs the updates.
+     * It is sent by the system and received by a data node.
      */
-    public static class SendItems implements Serializable {
-        public final Set<Integer> keys;
+    public static class SetWriteMode implements Serializable {
+        public final WriteMode mode;
 
         /**
-         * @param keys the set of keys of the neighbor
+         * @param mode the write mode
          */
-        public SendItems(Set<Integer> keys) {
-            this.keys = Collections.unmodifiableSet(new HashSet<>(keys));
+        public SetWriteMode(WriteMode mode) {
+            this.mode = mode;
         }
     }
 
     /**
-     * AskItemData
-     * A message that requests the value of a key.
-     * It is sent by the joining data node and received by the neighbors.
+     * SetReadCache
+     * A message that changes the number of items the coordinators keep in their read cache.
+     * It is sent by the system and received by a data node, that forwards it to its coordinators.
      */
-    public static class AskItemData implements Serializable {
-        public Integer key;
+    public static class SetReadCache implements Serializable {
+        public final int capacity;
 
         /**
-         * @param key the requested key
+         * @param capacity the items cached by every coordinator, 0 to disable the cache
          */
-        public AskItemData(Integer key) {
-            this.key = key;
+        public SetReadCache(int capacity) {
+            this.capacity = capacity;
         }
     }
 
     /**
-     * SendItemData
-     * A message that returns the value of the requested key.
-     * It is sent by one of the neighbors and received by the joining data node.
+     * AskReadCacheStatus
+     * A message that requests the hit ratio and memory use of the read caches.
+     * It is sent by the system and received by a data node, that forwards it to its coordinators.
      */
-    public static class SendItemData implements Serializable {
-        public Integer key;
-        public Data itemData;
+    public static class AskReadCacheStatus implements Serializable {
+        public AskReadCacheStatus() {
+        }
+    }
 
-        /**
-         * @param key the requested key
-         * @param itemData the requested data
-         */
-        public SendItemData(Integer key, Data itemData) {
-            this.key = key;
-            this.itemData = itemData;
+    /* ------- CLIENT ROUTING ------- */
+
+    /**
+     * AskRing
+     * A message that requests the ring, used by the clients to send the requests to the replicas of the keys.
+     * It is sent by the client and received by a data node.
+     */
+    public static class AskRing implements Serializable {
+        public AskRing() {
         }
     }
 
     /**
-     * AnnounceJoin
-     * A message that informs the group that the node is entering the group.
-     * It is sent by the joining data node and received by the data nodes in the group.
+     * SendRing
+     * A message that returns the ring of the data node.
+     * It is sent by the data node and received by the client.
      */
-    public static class AnnounceJoin implements Serializable {
-        public Integer nodeKey;
+    public static class SendRing implements Serializable {
+        public final List<DataNodeRef> group;
+        public final int replicasCount;
+        public final int epoch;
 
         /**
-         * @param nodeKey the node key of the joining node
+         * @param group the data nodes of the ring
+         * @param replicasCount the number of replicas of every key
+         * @param epoch the epoch of the ring
          */
-        public AnnounceJoin(Integer nodeKey) {
-            this.nodeKey = nodeKey;
+        public SendRing(List<DataNodeRef> group, int replicasCount, int epoch) {
+            this.group = Collections.unmodifiableList(new ArrayList<>(group));
+            this.replicasCount = replicasCount;
+            this.epoch = epoch;
         }
     }
 
-    /* ------- LEAVE ------- */
-
     /**
-     * AskToLeave
-     * A message that start the leave operation.
-     * It is sent by the system and received by a data node, that will leave.
+     * StaleRing
+     * A message that redirects a client request sent with a stale ring epoch: it returns the request,
+     * that the client sends again to a replica of the key found in the fresh ring.
+     * It is sent by the coordinator and received by the client.
      */
-    public static class AskToLeave implements Serializable {
-        public AskToLeave() {
+    public static class StaleRing implements Serializable {
+        public final Object request;
+        public final SendRing ring;
+
+        /**
+         * @param request the rejected client request
+         * @param ring the current ring of the coordinator
+         */
+        public StaleRing(Object request, SendRing ring) {
+            this.request = request;
+            this.ring = ring;
         }
     }
 
     /**
-     * AnnounceLeave
-     * A message that informs the group that the node is leaving the system.
-     * It is sent by the leaving node and received by the group.
+     * UpdateData
+     * A message that tells the data node to perform the update.
+     * It is sent by the coordinator and received by the proper data node.
      */
-    public static class AnnounceLeave implements Serializable {
-        public AnnounceLeave() {
+    public static class UpdateData implements Serializable {
+        public final Integer key;
+        public final String value;
+        public final Integer version;
+        public final long timestamp;
+
+        /**
+         * @param key the key to update
+         * @param value the new value
+         * @param version the new version
+         * @param timestamp the timestamp of the coordinator
+         */
+        public UpdateData(Integer key, String value, Integer version, long timestamp) {
+            this.key = key;
+            this.value = value;
+            this.version = version;
+            this.timestamp = timestamp;
         }
     }
 
     /**
-     * NewData
-     * A message that returns the item of the leaving node to the nodes of the group.
-     * It is sent by the leaving node and received by the group.
+     * BlindUpdate
+     * A message that tells the data node to perform an update stamped by the coordinator, without asking the version:
+     * the replica keeps it only if newer than its item (last writer wins) and acknowledges it.
+     * It is sent by the coordinator and received by the proper data node.
      */
-    public static class NewData implements Serializable {
-        public Integer key;
-        public Data data;
+    public static class BlindUpdate implements Serializable {
+        public final Integer key;
+        public final String value;
+        public final long timestamp;
+        public final String requestId;
 
         /**
-         * @param key the key
-         * @param data the pair value-version
+         * @param key the key to update
+         * @param value the new value
+         * @param timestamp the timestamp of the coordinator
+         * @param requestId the request identifier
          */
-        public NewData(Integer key, Data data) {
+        public BlindUpdate(Integer key, String value, long timestamp, String requestId) {
             this.key = key;
-            this.data = data;
+            this.value = value;
+            this.timestamp = timestamp;
+            this.requestId = requestId;
         }
     }
 
-    /* ------- CRASH ------- */
-
     /**
-     * AskCrash
-     * A message that requests the data node to crash.
-     * It is sent by the system and received by a node.
+     * SequenceUpdate
+     * A message that asks the primary of the key to assign the next version to an update,
+     * apply it and replicate it to the backups.
+     * The primary accepts it only if it is still the primary of the key in the epoch of the coordinator.
+     * It is sent by the coordinator and received by the primary data node.
      */
-    public static class AskCrash implements Serializable {
-        public AskCrash() {}
+    public static class SequenceUpdate implements Serializable {
+        public final Integer key;
+        public final String value;
+        public final long timestamp;
+        public final String requestId;
+        public final int epoch; // epoch of the range of the key in which the coordinator chose the primary
+        public final List<ActorRef> backups;
+
+        /**
+         * @param key the key to update
+         * @param value the new value
+         * @param timestamp the timestamp of the coordinator
+         * @param requestId the request identifier
+         * @param epoch the epoch of the range of the key known by the coordinator
+         * @param backups the other replicas of the key
+         */
+        public SequenceUpdate(Integer key, String value, long timestamp, String requestId, int epoch,
+                              List<ActorRef> backups) {
+            this.key = key;
+            this.value = value;
+            this.timestamp = timestamp;
+            this.requestId = requestId;
+            this.epoch = epoch;
+            this.backups = Collections.unmodifiableList(new ArrayList<>(backups));
+        }
+    }
+
+    /**
+     * ReplicateUpdate
+     * A message that carries an update sequenced by the primary.
+     * The backup discards it if it comes from an older epoch, and acknowledges it to the coordinator.
+     * It is sent by the primary and received by the backup data nodes.
+     */
+    public static class ReplicateUpdate implements Serializable {
+        public final Integer key;
+        public final String value;
+        public final Integer version;
+        public final long timestamp;
+        public final String requestId;
+        public final int epoch;
+        public final ActorRef coordinator;
+
+        /**
+         * @param key the key to update
+         * @param value the new value
+         * @param version the version assigned by the primary
+         * @param timestamp the timestamp of the coordinator
+         * @param requestId the request identifier
+         * @param epoch the epoch of the range of the key in which the primary was chosen
+         * @param coordinator the coordinator that waits for the acknowledgments
+         */
+        public ReplicateUpdate(Integer key, String value, Integer version, long timestamp, String requestId,
+                               int epoch, ActorRef coordinator) {
+            this.key = key;
+            this.value = value;
+            this.version = version;
+            this.timestamp = timestamp;
+            this.requestId = requestId;
+            this.epoch = epoch;
+            this.coordinator = coordinator;
+        }
+    }
+
+    /**
+     * ChainUpdate
+     * A message that carries an update along the chain of the replicas of the key.
+     * The head assigns the next version, every replica applies the update and passes it to the next one,
+     * the tail acknowledges it to the coordinator.
+     * It is sent by the coordinator to the head, and by every replica to the next one.
+     */
+    public static class ChainUpdate implements Serializable {
+        public final Integer key;
+        public final String value;
+        public final Integer version; // null until the head assigns it
+        public final long timestamp;
+        public final String requestId;
+        public final int epoch; // epoch of the range of the key in which the coordinator built the chain
+        public final List<ActorRef> chain; // the replicas that still have to apply the update
+        public final ActorRef coordinator;
+
+        /**
+         * @param key the key to update
+         * @param value the new value
+         * @param version the version assigned by the head, null for the head
+         * @param timestamp the timestamp of the coordinator
+         * @param requestId the request identifier
+         * @param epoch the epoch of the range of the key known by the coordinator
+         * @param chain the replicas that still have to apply the update, starting from the receiver
+         * @param coordinator the coordinator that waits for the acknowledgment of the tail
+         */
+        public ChainUpdate(Integer key, String value, Integer version, long timestamp, String requestId, int epoch,
+                           List<ActorRef> chain, ActorRef coordinator) {
+            this.key = key;
+            this.value = value;
+            this.version = version;
+            this.timestamp = timestamp;
+            this.requestId = requestId;
+            this.epoch = epoch;
+            this.chain = Collections.unmodifiableList(new ArrayList<>(chain));
+            this.coordinator = coordinator;
+        }
+    }
+
+    /**
+     * AckUpdate
+     * A message that acknowledges a blind, sequenced or chained update, with the item the replica keeps.
+     * It is sent by the data nodes and received by the coordinator.
+     */
+    public static class AckUpdate implements Serializable {
+        public final Integer version;
+        public final long timestamp;
+        public final String requestId;
+
+        /**
+         * @param version the version of the item
+         * @param timestamp the timestamp of the item
+         * @param requestId the request identifier
+         */
+        public AckUpdate(Integer version, long timestamp, String requestId) {
+            this.version = version;
+            this.timestamp = timestamp;
+            this.requestId = requestId;
+        }
+    }
+
+    /* ------- JOIN ------- */
+
+    /**
+     * AskToJoin
+     * A message that starts the join operation.
+     * It is sent by the system and received by the joining node
+     */
+    public static class AskToJoin implements Serializable {
+        public ActorRef bootstrappingNode;
+
+        /**
+         * @param node the ActorRef of the boostrap node
+         */
+        public AskToJoin(ActorRef node) {
+            this.bootstrappingNode = node;
+        }
+    }
+
+    /**
+     * AskNodeGroup
+     * A message that ask for the actual group of nodes to the boostrap node.
+     * It is sent by the joining data node and received by the boostrap node.
+     */
+    public static class AskNodeGroup implements Serializable {
+        public AskNodeGroup() {
+        }
+    }
+
+    /**
+     * SendNodeGroup
+     * A message that returns the group of nodes to the joining data node.
+     * It is sent by the bootstrap node and received by the joining data node.
+     */
+    public static class SendNodeGroup implements Serializable {
+        public final List<MembershipDelta> snapshot;
+        public final Map<ActorRef, Integer> rangeFloors;
+
+        /**
+         * @param snapshot the last change of every member and of the nodes recently left
+         * @param rangeFloors the epochs of the collected leaves of the ranges, by first replica
+         */
+        public SendNodeGroup(List<MembershipDelta> snapshot, Map<ActorRef, Integer> rangeFloors) {
+            this.snapshot = Collections.unmodifiableList(new ArrayList<>(snapshot));
+            this.rangeFloors = Collections.unmodifiableMap(new HashMap<>(rangeFloors));
+        }
+    }
+
+    /**
+     * AskItemChunk
+     * A message that requests the next chunk of the items the joining node will be responsible for.
+     * It is sent by the joining node and received by its neighbors.
+     */
+    public static class AskItemChunk implements Serializable {
+        public final Integer joiningNodeKey;
+        public final Integer cursor;
+        public final int chunkSize;
+        public final boolean withValues;
+
+        /**
+         * @param joiningNodeKey the node key of the joining node
+         * @param cursor the last key already received
+         * @param chunkSize the maximum number of items in the chunk
+         * @param withValues true to receive the values, false to receive only the stamps
+         */
+        public AskItemChunk(Integer joiningNodeKey, Integer cursor, int chunkSize, boolean withValues) {
+            this.joiningNodeKey = joiningNodeKey;
+            this.cursor = cursor;
+            this.chunkSize = chunkSize;
+            this.withValues = withValues;
+        }
+    }
+
+    /**
+     * SendItemChunk
+     * A message that returns a chunk of items, sorted by key.
+     * It contains either the values or only the stamps (version and timestamp) of the items.
+     * It is sent by one of the neighbors and received by the joining node.
+     */
+    public static class SendItemChunk implements Serializable {
+        public final Map<Integer, Data> items;
+        public final Map<Integer, Stamp> stamps;
+        public final Integer fromCursor;
+        public final Integer cursor;
+        public final boolean last;
+
+        /**
+         * @param items the items of the chunk, empty for a digest
+         * @param stamps the stamps of the items, empty if the values are sent
+         * @param fromCursor the cursor of the request
+         * @param cursor the last key of the chunk
+         * @param last true if there are no more items
+         */
+        public SendItemChunk(Map<Integer, Data> items, Map<Integer, Stamp> stamps,
+                             Integer fromCursor, Integer cursor, boolean last) {
+            this.items = Collections.unmodifiableMap(new HashMap<>(items));
+            this.stamps = Collections.unmodifiableMap(new HashMap<>(stamps));
+            this.fromCursor = fromCursor;
+            this.cursor = cursor;
+            this.last = last;
+        }
+    }
+
+    /**
+     * ChunkQueued
+     * A message that reports that a chunk is waiting in the rebalancing backlog of the source.
+     * It is sent by one of the neighbors and received by the joining node.
+     */
+    public static class ChunkQueued implements Serializable {
+        public final Integer cursor;
+
+        /**
+         * @param cursor the cursor of the request
+         */
+        public ChunkQueued(Integer cursor) {
+            this.cursor = cursor;
+        }
+    }
+
+    /**
+     * AskItemValues
+     * A message that requests the values of the keys whose most recent version is held by the receiver.
+     * It is sent by the joining node and received by one of its neighbors.
+     */
+    public static class AskItemValues implements Serializable {
+        public final Set<Integer> keys;
+
+        /**
+         * @param keys the requested keys
+         */
+        public AskItemValues(Set<Integer> keys) {
+            this.keys = Collections.unmodifiableSet(new HashSet<>(keys));
+        }
+    }
+
+    /**
+     * SendItemValues
+     * A message that returns the requested values.
+     * It is sent by one of the neighbors and received by the joining node.
+     */
+    public static class SendItemValues implements Serializable {
+        public final Map<Integer, Data> items;
+
+        /**
+         * @param items the requested items
+         */
+        public SendItemValues(Map<Integer, Data> items) {
+            this.items = Collections.unmodifiableMap(new HashMap<>(items));
+        }
+    }
+
+    /**
+     * TimeoutOnItemValues
+     * A message that returns a timeout while waiting for the missing values.
+     * It is sent by the joining node to itself when it asks for the values.
+     */
+    public static class TimeoutOnItemValues implements Serializable {
+        public TimeoutOnItemValues() {
+        }
+    }
+
+    /**
+     * TimeoutOnChunk
+     * A message that returns a timeout while waiting for a chunk.
+     * It is sent by the joining node to itself when it asks for a chunk.
+     */
+    public static class TimeoutOnChunk implements Serializable {
+        public final ActorRef source;
+        public final Integer cursor;
+
+        /**
+         * @param source the node that should send the chunk
+         * @param cursor the cursor of the request
+         */
+        public TimeoutOnChunk(ActorRef source, Integer cursor) {
+            this.source = source;
+            this.cursor = cursor;
+        }
+    }
+
+    /**
+     * AnnounceJoin
+     * A message that informs the group that the node is entering the group.
+     * It is sent by the joining data node and received by its neighbors,
+     * the rest of the group learns about the join through gossip.
+     */
+    public static class AnnounceJoin implements Serializable {
+        public Integer nodeKey;
+        public MembershipDelta delta;
+
+        /**
+         * @param nodeKey the node key of the joining node
+         * @param delta the membership delta of the join
+         */
+        public AnnounceJoin(Integer nodeKey, MembershipDelta delta) {
+            this.nodeKey = nodeKey;
+            this.delta = delta;
+        }
+    }
+
+    /* ------- LEAVE ------- */
+
+    /**
+     * AskToLeave
+     * A message that start the leave operation.
+     * It is sent by the system and received by a data node, that will leave.
+     */
+    public static class AskToLeave implements Serializable {
+        public AskToLeave() {
+        }
+    }
+
+    /**
+     * AnnounceLeave
+     * A message that informs the group that the node is leaving the system.
+     * It is sent by the leaving node and received by its neighbors,
+     * the rest of the group learns about the leave through gossip.
+     */
+    public static class AnnounceLeave implements Serializable {
+        public MembershipDelta delta;
+
+        /**
+         * @param delta the membership delta of the leave
+         */
+        public AnnounceLeave(MembershipDelta delta) {
+            this.delta = delta;
+        }
+    }
+
+    /**
+     * NewDataBatch
+     * A message that hands off a batch of items of the leaving node to their new owner.
+     * It is sent by the leaving node and received by the nodes that become responsible for the items.
+     */
+    public static class NewDataBatch implements Serializable {
+        public final Integer batchId;
+        public final Map<Integer, Data> items;
+
+        /**
+         * @param batchId the identifier of the batch
+         * @param items the items of the batch
+         */
+        public NewDataBatch(Integer batchId, Map<Integer, Data> items) {
+            this.batchId = batchId;
+            this.items = Collections.unmodifiableMap(new HashMap<>(items));
+        }
+    }
+
+    /**
+     * AckNewData
+     * A message that acknowledges a batch of items.
+     * It is sent by the new owner and received by the leaving node.
+     */
+    public static class AckNewData implements Serializable {
+        public final Integer batchId;
+
+        /**
+         * @param batchId the identifier of the batch
+         */
+        public AckNewData(Integer batchId) {
+            this.batchId = batchId;
+        }
+    }
+
+    /**
+     * TimeoutOnLeave
+     * A message that returns a timeout while waiting for the acknowledgements of the batches.
+     * It is sent by the leaving node to itself.
+     */
+    public static class TimeoutOnLeave implements Serializable {
+        public TimeoutOnLeave() {
+        }
+    }
+
+    /* ------- CRASH ------- */
+
+    /**
+     * AskCrash
+     * A message that requests the data node to crash.
+     * It is sent by the system and received by a node.
+     */
+    public static class AskCrash implements Serializable {
+        public AskCrash() {}
     }
 
     /**
@@ -572,13 +1387,16 @@ public class DataNode extends AbstractActor {
      * It is sent by the boostrap node and received by the crashed node.
      */
     public static class SendGroupToRecover implements Serializable {
-        public final List<DataNodeRef> group;
+        public final List<MembershipDelta> snapshot;
+        public final Map<ActorRef, Integer> rangeFloors;
 
         /**
-         * @param group the ActorRef list of the group
+         * @param snapshot the last change of every member and of the nodes recently left
+         * @param rangeFloors the epochs of the collected leaves of the ranges, by first replica
          */
-        public SendGroupToRecover(List<DataNodeRef> group) {
-            this.group = Collections.unmodifiableList(new ArrayList<>(group));
+        public SendGroupToRecover(List<MembershipDelta> snapshot, Map<ActorRef, Integer> rangeFloors) {
+            this.snapshot = Collections.unmodifiableList(new ArrayList<>(snapshot));
+            this.rangeFloors = Collections.unmodifiableMap(new HashMap<>(rangeFloors));
         }
     }
 
@@ -589,12 +1407,15 @@ public class DataNode extends AbstractActor {
      */
     public static class AskDataToRecover implements Serializable {
         public Integer crashedNodeId;
+        public Map<Integer, Stamp> stamps;
 
         /**
          * @param nodeId the node id of the crashed node
+         * @param stamps the keys still held by the crashed node with their stamps
          */
-        public AskDataToRecover(Integer nodeId) {
+        public AskDataToRecover(Integer nodeId, Map<Integer, Stamp> stamps) {
             this.crashedNodeId = nodeId;
+            this.stamps = Collections.unmodifiableMap(new HashMap<>(stamps));
         }
     }
 
@@ -627,7 +1448,7 @@ public class DataNode extends AbstractActor {
     /**
      * TimeoutSendVersion
      * A message that returns a timeout while waiting for the version
-     * It is sent by the node asking the version to itself to start the timeout for the action of asking the version during the update procedure
+     * It is sent by the partition that locked the item to itself to start the timeout for the action of asking the version during the update procedure
      */
     public static class TimeoutSendVersion implements Serializable {
         public Integer key;
@@ -640,6 +1461,170 @@ public class DataNode extends AbstractActor {
         }
     }
 
+    /* ------- MEMBERSHIP GOSSIP ------- */
+
+    /**
+     * GossipTick
+     * A message that starts a gossip round.
+     * It is sent periodically by the data node to itself.
+     */
+    public static class GossipTick implements Serializable {
+        public GossipTick() {
+        }
+    }
+
+    /**
+     * GossipDigest
+     * A message that carries a digest of the members known by the sender, with their versions,
+     * and the nodes it suspects to be down.
+     * It is sent by a data node to some random nodes of the group.
+     */
+    public static class GossipDigest implements Serializable {
+        public final int digest;
+        public final List<ActorRef> suspected;
+
+        /**
+         * @param digest the digest of the members known by the sender
+         * @param suspected the nodes suspected by the sender
+         */
+        public GossipDigest(int digest, List<ActorRef> suspected) {
+            this.digest = digest;
+            this.suspected = Collections.unmodifiableList(new ArrayList<>(suspected));
+        }
+    }
+
+    /**
+     * AskMembershipDeltas
+     * A message that carries the version of every node known by the sender, to get the changes it misses.
+     * It is sent by a data node that received a different digest and received by the node that sent it.
+     */
+    public static class AskMembershipDeltas implements Serializable {
+        public final Map<ActorRef, Integer> versions;
+
+        /**
+         * @param versions the version of every node known by the sender
+         */
+        public AskMembershipDeltas(Map<ActorRef, Integer> versions) {
+            this.versions = Collections.unmodifiableMap(new HashMap<>(versions));
+        }
+    }
+
+    /**
+     * SendMembershipDeltas
+     * A message that returns the membership changes the receiver misses, at most one per node.
+     * It is sent by a data node and received by the node that asked them.
+     */
+    public static class SendMembershipDeltas implements Serializable {
+        public final List<MembershipDelta> deltas;
+
+        /**
+         * @param deltas the missing membership deltas
+         */
+        public SendMembershipDeltas(List<MembershipDelta> deltas) {
+            this.deltas = Collections.unmodifiableList(new ArrayList<>(deltas));
+        }
+    }
+
+    /* ------- FAILURE DETECTION ------- */
+
+    /**
+     * HeartbeatTick
+     * A message that starts the sending of the heartbeats.
+     * It is sent periodically by the data node to itself.
+     */
+    public static class HeartbeatTick implements Serializable {
+        public HeartbeatTick() {
+        }
+    }
+
+    /**
+     * Heartbeat
+     * A message that tells the receiver that the sender is alive.
+     * It is sent by a data node to its neighbors.
+     */
+    public static class Heartbeat implements Serializable {
+        public Heartbeat() {
+        }
+    }
+
+    /* ------- HINTED HANDOFF ------- */
+
+    /**
+     * ReplayHints
+     * A message that delivers the updates missed by a replica while it was suspected to be down.
+     * It is sent by a coordinator and received by the replica.
+     */
+    public static class ReplayHints implements Serializable {
+        public final Map<Integer, Data> data;
+
+        /**
+         * @param data the missed data items
+         */
+        public ReplayHints(Map<Integer, Data> data) {
+            this.data = Collections.unmodifiableMap(new HashMap<>(data));
+        }
+    }
+
+    /**
+     * AckHints
+     * A message that acknowledges the replayed hints.
+     * It is sent by the replica and received by the coordinator.
+     */
+    public static class AckHints implements Serializable {
+        public final Map<Integer, Stamp> stamps;
+
+        /**
+         * @param stamps the acknowledged keys with their stamps
+         */
+        public AckHints(Map<Integer, Stamp> stamps) {
+            this.stamps = Collections.unmodifiableMap(new HashMap<>(stamps));
+        }
+    }
+
+    /* ------- REBALANCING ------- */
+
+    /**
+     * RebalanceTick
+     * A message that sends the rebalancing messages allowed by the governor.
+     * It is sent periodically by the data node to itself.
+     */
+    public static class RebalanceTick implements Serializable {
+        public RebalanceTick() {
+        }
+    }
+
+    /**
+     * SetRebalanceLimits
+     * A message that changes the limits of the traffic spent on rebalancing.
+     * It is sent by the system and received by a data node.
+     */
+    public static class SetRebalanceLimits implements Serializable {
+        public final long bytesRate;
+        public final long messagesRate;
+        public final long targetLatency;
+
+        /**
+         * @param bytesRate the maximum bytes per second
+         * @param messagesRate the maximum messages per second
+         * @param targetLatency the client latency over which the rate is reduced, in ms
+         */
+        public SetRebalanceLimits(long bytesRate, long messagesRate, long targetLatency) {
+            this.bytesRate = bytesRate;
+            this.messagesRate = messagesRate;
+            this.targetLatency = targetLatency;
+        }
+    }
+
+    /**
+     * AskRebalanceStatus
+     * A message that requests the current rebalancing rate and backlog.
+     * It is sent by the system and received by a data node.
+     */
+    public static class AskRebalanceStatus implements Serializable {
+        public AskRebalanceStatus() {
+        }
+    }
+
     /* ------- HANDLERS ------- */
 
     /**
@@ -664,9 +1649,18 @@ public class DataNode extends AbstractActor {
      * @see AskWriteData
      */
     public void onAskWriteData(AskWriteData msg) {
+        if (!admit(msg, msg.key, null, msg.epoch)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
         for (ActorRef node : groupManager.findDataNodes(msg.key)) {
             WriteData data = new WriteData(msg.key, msg.value);
             node.tell(data, self());
+
+            // keep a hint for the replicas that may miss the write
+            if (groupManager.isSuspected(node, now)) {
+                hintManager.addHint(node, msg.key, new Data(msg.value));
+            }
         }
 
         // logging
@@ -675,236 +1669,184 @@ public class DataNode extends AbstractActor {
 
     /**
      * WriteData handler.
-     * Performs the write operation.
+     * Forwards the write to the partition that owns the key.
      * @param msg WriteData message
      * @see WriteData
      */
     public void onWriteData(WriteData msg) {
-        if (!nodeData.isPresent(msg.key)) {
-            nodeData.put(msg.key, msg.value);
-            DataManager.Data elem = nodeData.getData(msg.key);
-
-            // logging
-            Logs.write(msg.key, elem.getValue(), Helper.getName(getSender()), Helper.getName(self()));
-        } else {
-            Logs.error(ErrorType.EXISTING_KEY, msg.key, Helper.getName(self()));
-        }
+        partitionManager.getPartition(msg.key).forward(msg, getContext());
     }
 
     /* ------- READ ------- */
 
     /**
      * AskReadData handler
-     * Sends a read request to the node that holds the key.
-     * Schedule the timeout message.
+     * Hands the read request to the coordinator of the pool that serves the key, with the available replicas of the key.
+     * On a direct read, the replicas are asked to reply straight to the client, that counts the quorum.
+     * With chain replication, only the tail of the chain is asked, through the coordinator:
+     * the last replica of the key that is not suspected. If all the replicas are suspected, the read fails at once.
      * @param msg AskReadData message
      * @see AskReadData
      */
     public void onAskReadData(AskReadData msg) {
-        requestManager.newReadReq(msg.requestId, getSender());
-        for (ActorRef node : groupManager.findDataNodes(msg.key)) {
-            ReadData request = new ReadData(msg.key, msg.requestId);
-            node.tell(request, self());
+        if (!admit(msg, msg.key, msg.requestId, msg.epoch)) {
+            return;
         }
+        List<ActorRef> replicas = groupManager.findAvailableDataNodes(msg.key, System.currentTimeMillis());
+        if (writeMode == WriteMode.CHAIN) {
+            if (replicas.isEmpty()) {
+                getSender().tell(new ReturnTimeoutOnRead(msg.requestId), self());
+                Logs.error(ErrorType.NO_REPLICA, msg.key, Helper.getName(self()));
+                return;
+            }
+            // the tail has applied every acknowledged update
+            List<ActorRef> tail = replicas.subList(replicas.size() - 1, replicas.size());
+            getCoordinator(msg.key).tell(new CoordinateRead(msg, getSender(), tail, true), self());
+            return;
+        }
+        if (msg.directReply) {
+            for (ActorRef node : replicas) {
+                ReadData request = new ReadData(msg.key, msg.requestId, getSender());
+                ActorRef target = node.equals(self()) ? partitionManager.getPartition(msg.key) : node;
+                target.tell(request, self());
+            }
 
-        // logging
-        Logs.ask_read(msg.key, msg.requestId, Helper.getName(getSender()), Helper.getName(self()));
-
-        getContext().system().scheduler().scheduleOnce(
-                Duration.create(maxTimeout, TimeUnit.MILLISECONDS),
-                getSelf(),
-                new TimeoutOnRead(msg.requestId),
-                getContext().system().dispatcher(), getSelf()
-        );
-
+            // logging
+            Logs.ask_read(msg.key, msg.requestId, Helper.getName(getSender()), Helper.getName(self()));
+            return;
+        }
+        getCoordinator(msg.key).tell(new CoordinateRead(msg, getSender(), replicas, false), self());
     }
 
     /**
      * ReadData handler
-     * Gets the value associated with the key.
+     * Forwards the read to the partition that owns the key, that replies to the coordinator.
      * @param msg ReadData message
      * @see ReadData
      */
     public void onReadData(ReadData msg) {
-        if (nodeData.isPresent(msg.key)) {
-            if (!nodeData.isBlocked(msg.key)) {
-                Data readedData = nodeData.getData(msg.key);
-                getSender().tell(new SendRead(readedData, msg.requestId), self());
-
-                // logging
-                Logs.read(msg.key, msg.requestId, Helper.getName(getSender()), Helper.getName(self()));
-            } else {
-                // data is locked
-                Logs.error(ErrorType.LOCKED_KEY, msg.key, Helper.getName(sender()));
-            }
-        } else {
-            // data is not present
-            Logs.error(ErrorType.UNKNOWN_KEY, msg.key, Helper.getName(sender()));
-        }
+        partitionManager.getPartition(msg.key).forward(msg, getContext());
     }
 
     /**
-     * SendRead handler.
-     * Adds the data to the read quorum.
-     * If the quorum is reached, the data is sent to the client.
-     * If the quorum is not reached, nothing happens.
-     * @param msg SendRead message
-     * @see SendRead
+     * AskReadVersion handler.
+     * Forwards the check to the partition that owns the key, that replies to the coordinator.
+     * @param msg AskReadVersion message
+     * @see AskReadVersion
      */
-    public void onSendRead(SendRead msg) {
-        switch (requestManager.addReadResp(msg.requestId, msg.data)) {
-            case OK -> {
-                // System.out.println("sending");
-                ActorRef client = requestManager.getClientReadReq(msg.requestId);
-                String requestedValue = requestManager.getReadValue(msg.requestId);
-                requestManager.removeReadReq(msg.requestId);
-                SendRead2Client resp = new SendRead2Client(requestedValue, msg.requestId);
-                client.tell(resp, self());
-
-                // logging
-                Logs.read_reply(msg.data.getValue(), msg.data.getVersion(), msg.requestId, Helper.getName(self()), client.path().name());
-            }
-            default -> {}
-        }
-    }
-
-    /**
-     * TimeoutOnRead handler
-     * Forward timeout message to the client.
-     * @param msg TimeoutOnRead message
-     * @see TimeoutOnRead
-     */
-    public void onTimeoutOnRead(TimeoutOnRead msg) {
-        if (requestManager.isTimeoutOnRead(msg.requestId)) {
-            ActorRef client = requestManager.getClientReadReq(msg.requestId);
-            requestManager.removeReadReq(msg.requestId);
-            client.tell(new ReturnTimeoutOnRead(msg.requestId), self());
-        }
+    public void onAskReadVersion(AskReadVersion msg) {
+        partitionManager.getPartition(msg.key).forward(msg, getContext());
     }
 
     /* ------- UPDATE ------- */
 
     /**
      * AskUpdateData handler.
-     * Send an update request to the node that holds the key.
+     * Hands the update request to the coordinator of the pool that serves the key, with the replicas of the key.
+     * With a primary or a chain, the update fails at once if all the replicas of the key are suspected,
+     * since there is no replica to sequence it.
      * @param msg AskUpdateData message
      * @see AskUpdateData
      */
     public void onAskUpdateData(AskUpdateData msg) {
-        requestManager.newWriteReq(msg.requestId, getSender(), msg.key, msg.value);
-        for (ActorRef node : groupManager.findDataNodes(msg.key)) {
-            AskVersion request = new AskVersion(msg.key, msg.requestId);
-            node.tell(request, self());
+        if (!admit(msg, msg.key, msg.requestId, msg.epoch)) {
+            return;
         }
-
-        getContext().system().scheduler().scheduleOnce(
-                Duration.create(maxTimeout, TimeUnit.MILLISECONDS),
-                getSelf(),
-                new TimeoutOnUpdate(msg.requestId),
-                getContext().system().dispatcher(), getSelf()
-        );
-
-        // logging
-        Logs.ask_update(msg.key, msg.value, msg.requestId, Helper.getName(getSender()), Helper.getName(self()));
+        long now = System.currentTimeMillis();
+        List<ActorRef> replicas = groupManager.findDataNodes(msg.key);
+        Set<ActorRef> suspected = new HashSet<>();
+        for (ActorRef node : replicas) {
+            if (groupManager.isSuspected(node, now)) {
+                suspected.add(node);
+            }
+        }
+        List<ActorRef> available = groupManager.findAvailableDataNodes(msg.key, now);
+        if (available.isEmpty() && (writeMode == WriteMode.PRIMARY || writeMode == WriteMode.CHAIN)) {
+            getSender().tell(new ReturnTimeoutOnWrite(msg.requestId), self());
+            Logs.error(ErrorType.NO_REPLICA, msg.key, Helper.getName(self()));
+            return;
+        }
+        CoordinateUpdate request = new CoordinateUpdate(msg, getSender(), available, replicas, suspected,
+                writeMode, groupManager.getRangeEpoch(msg.key));
+        getCoordinator(msg.key).tell(request, self());
     }
 
     /**
      * AskVersion handler.
-     * Sends back the version of the requested item if it is not locked.
-     * Schedule a timeout message
+     * Forwards the request to the partition that owns the key, that locks the item and replies to the coordinator.
      * @param msg AskVersion message
      * @see AskVersion
      */
     public void onAskVersion(AskVersion msg) {
-        if (nodeData.isPresent(msg.key)) {
-            if (!nodeData.isBlocked(msg.key)) {
-                Data readedData = nodeData.getDataAndBlock(msg.key);
-                getSender().tell(new SendVersion(readedData.getVersion(), msg.requestId), self());
-
-                getContext().system().scheduler().scheduleOnce(
-                        Duration.create(maxTimeout, TimeUnit.MILLISECONDS),
-                        getSelf(),
-                        new TimeoutSendVersion(readedData.getVersion()),
-                        getContext().system().dispatcher(), getSelf()
-                );
-
-                // logging
-                Logs.ask_version(msg.key, msg.requestId, Helper.getName(getSender()), Helper.getName(self()));
-            } else {
-                // data is locked
-                Logs.error(ErrorType.LOCKED_KEY, msg.key, Helper.getName(self()));
-            }
-        } else {
-            // data is not present
-            Logs.error(ErrorType.UNKNOWN_KEY, msg.key, Helper.getName(self()));
-        }
+        partitionManager.getPartition(msg.key).forward(msg, getContext());
+    }
+
+    /**
+     * UpdateData handler.
+     * Forwards the update to the partition that owns the key.
+     * @param msg UpdateData message
+     * @see UpdateData
+     */
+    public void onUpdateData(UpdateData msg) {
+        partitionManager.getPartition(msg.key).forward(msg, getContext());
     }
 
     /**
-     * SendVersion handler.
-     * If the quorum is reached, send the update message with the new value and version.
-     * Return to the client the new version of the item.
-     * @param msg SendVersion message
-     * @see SendVersion
+     * BlindUpdate handler.
+     * Forwards the update to the partition that owns the key, that acknowledges it to the coordinator.
+     * @param msg BlindUpdate message
+     * @see BlindUpdate
      */
-    public void onSendVersion(SendVersion msg) {
-        switch (requestManager.addWriteResp(msg.requestId, msg.version)) {
-            case OK -> {
-                ActorRef client = requestManager.getClientWriteReq(msg.requestId);
-
-                Integer key = requestManager.getNewKeyOnWrite(msg.requestId);
-                String value = requestManager.getNewValueOnWrite(msg.requestId);
-                Integer version = requestManager.getVersionOnWrite(msg.requestId);
-                requestManager.removeWriteReq(msg.requestId);
-
-                // increase the version to 1 in respect to the quored one
-                version += 1;
-                // send the fetched version to the client
-                ReturnUpdate resp = new ReturnUpdate(version, msg.requestId);
-                client.tell(resp, self());
-
-                // tell all data nodes to write the updated data
-                for (ActorRef node : groupManager.findDataNodes(key)) {
-                    UpdateData data = new UpdateData(key, value, version);
-                    node.tell(data, self());
-                }
-
-                // logging
-                Logs.version_reply(msg.version, msg.requestId, Helper.getName(getSender()), Helper.getName(self()));
-            }
+    public void onBlindUpdate(BlindUpdate msg) {
+        partitionManager.getPartition(msg.key).forward(msg, getContext());
+    }
 
-            default -> {
-            }
+    /**
+     * SequenceUpdate handler.
+     * Forwards the update to the partition that owns the key, if the node is the primary of the key:
+     * the first replica of the key that is not suspected, chosen by a coordinator that knows the last change
+     * of the range of the key. Otherwise the update is discarded and the coordinator times out.
+     * @param msg SequenceUpdate message
+     * @see SequenceUpdate
+     */
+    public void onSequenceUpdate(SequenceUpdate msg) {
+        List<ActorRef> replicas = groupManager.findAvailableDataNodes(msg.key, System.currentTimeMillis());
+        if (msg.epoch < groupManager.getRangeEpoch(msg.key) || replicas.isEmpty()
+                || !replicas.get(0).equals(self())) {
+            Logs.error(ErrorType.STALE_PRIMARY, msg.key, Helper.getName(self()));
+            return;
         }
+        partitionManager.getPartition(msg.key).forward(msg, getContext());
     }
 
     /**
-     * TimeoutOnUpdate handler.
-     * Forward timeout message to the client.
-     * @param msg TimeoutOnUpdate message
-     * @see TimeoutOnUpdate
+     * ReplicateUpdate handler.
+     * Forwards the update to the partition that owns the key,
+     * unless the primary was chosen before the last change of the range of the key.
+     * @param msg ReplicateUpdate message
+     * @see ReplicateUpdate
      */
-    public void onTimeoutOnUpdate(TimeoutOnUpdate msg) {
-        if (requestManager.isTimeoutOnWrite(msg.requestId)) {
-            ActorRef client = requestManager.getClientWriteReq(msg.requestId);
-            requestManager.removeWriteReq(msg.requestId);
-            client.tell(new ReturnTimeoutOnWrite(msg.requestId), self());
+    public void onReplicateUpdate(ReplicateUpdate msg) {
+        if (msg.epoch < groupManager.getRangeEpoch(msg.key)) {
+            Logs.error(ErrorType.STALE_PRIMARY, msg.key, Helper.getName(self()));
+            return;
         }
+        partitionManager.getPartition(msg.key).forward(msg, getContext());
     }
 
     /**
-     * UpdateData handler.
-     * Performs the update and removes the lock on the resource.
-     * @param msg UpdateData message
-     * @see UpdateData
+     * ChainUpdate handler.
+     * Forwards the update to the partition that owns the key,
+     * unless the chain was built before the last change of the range of the key.
+     * @param msg ChainUpdate message
+     * @see ChainUpdate
      */
-    public void onUpdateData(UpdateData msg) {
-        nodeData.putUpdateAndRemoveBlock(msg.key, msg.value, msg.version);
-        DataManager.Data elem = nodeData.getData(msg.key);
-
-        // logging
-        Logs.update(msg.key, elem.getValue(), Helper.getName(getSender()), Helper.getName(self()));
-        // System.out.println("DataNode " + Helper.getName(self()) + ": update data {" + msg.key + ",(" + elem.getValue() + "," + elem.getVersion() + ")} saved");
+    public void onChainUpdate(ChainUpdate msg) {
+        if (msg.epoch < groupManager.getRangeEpoch(msg.key)) {
+            Logs.error(ErrorType.STALE_PRIMARY, msg.key, Helper.getName(self()));
+            return;
+        }
+        partitionManager.getPartition(msg.key).forward(msg, getContext());
     }
 
     /* ------- JOIN ------- */
@@ -926,8 +1868,7 @@ public class DataNode extends AbstractActor {
      * @see AskNodeGroup
      */
     public void onAskNodeGroup(AskNodeGroup msg) {
-        List<DataNodeRef> group = groupManager.getGroup();
-        getSender().tell(new SendNodeGroup(group), self());
+        getSender().tell(new SendNodeGroup(groupManager.getSnapshot(), groupManager.getRangeFloors()), self());
 
         // logging
         Logs.ask_group(Helper.getName(getSender()), Helper.getName(self()));
@@ -935,88 +1876,238 @@ public class DataNode extends AbstractActor {
 
     /**
      * SendNodeGroup handler.
-     * Find the neighbors and ask for the items.
+     * Find the neighbors and start streaming the items from them.
+     * The values come from the clockwise neighbor, that holds every range of the joining node,
+     * the other neighbors send only the stamps.
      * @param msg SendNodeGroup message
      * @see SendNodeGroup
      */
     public void onSendNodeGroup(SendNodeGroup msg) {
-        groupManager.addNode(msg.group);
-        ActorRef neighbor = groupManager.getClockwiseNeighbor(nodeKey);
-        neighbor.tell(new AskItems(), self());
+        groupManager.addNewGroup(msg.snapshot, msg.rangeFloors, self());
+        Set<ActorRef> sources = new HashSet<>(groupManager.findNeighbors(nodeKey));
+        ActorRef valueSource = groupManager.getClockwiseNeighbor(nodeKey);
+        this.joinManager = new JoinManager(sources, valueSource, JOIN_MAX_RETRIES, System.currentTimeMillis());
+        for (ActorRef source : sources) {
+            askItemChunk(source);
+        }
 
         // logging
         Logs.group_reply(Helper.getName(getSender()), Helper.getName(self()));
     }
 
     /**
-     * AskItems handler.
-     * Send back the items.
-     * @param msg AskItems message
-     * @see AskItems
+     * Ask a source the chunk that follows its cursor and schedule the timeout.
+     * Only one chunk per source is requested at a time, so the sources are never faster than the joining node.
+     * @param source the source node
+     */
+    private void askItemChunk(ActorRef source) {
+        Integer cursor = joinManager.getCursor(source);
+        if (joinManager.isValueSource(source)) {
+            source.tell(new AskItemChunk(nodeKey, cursor, JOIN_CHUNK_SIZE, true), self());
+        } else {
+            source.tell(new AskItemChunk(nodeKey, cursor, JOIN_DIGEST_CHUNK_SIZE, false), self());
+        }
+
+        getContext().system().scheduler().scheduleOnce(
+                Duration.create(maxTimeout, TimeUnit.MILLISECONDS),
+                getSelf(),
+                new TimeoutOnChunk(source, cursor),
+                timers(), getSelf()
+        );
+    }
+
+    /**
+     * AskItemChunk handler.
+     * Send back the next chunk of items the joining node will be responsible for,
+     * or only their stamps if the values are not requested.
+     * @param msg AskItemChunk message
+     * @see AskItemChunk
      */
-    public void onAskItems(AskItems msg) {
-        Set<Integer> items = nodeData.getKeys();
-        getSender().tell(new SendItems(items), self());
+    public void onAskItemChunk(AskItemChunk msg) {
+        ActorRef joiningNode = getSender();
+        List<KeyRange> ranges = groupManager.getJoiningRanges(msg.joiningNodeKey);
+        gatherItems(gatherId -> new CollectItems(gatherId, ranges, msg.cursor, msg.chunkSize), msg.chunkSize, items -> {
+            boolean last = items.size() < msg.chunkSize;
+            Integer cursor = items.isEmpty() ? msg.cursor : items.lastKey();
+            boolean sent;
+            if (msg.withValues) {
+                sent = sendRebalance(joiningNode, new SendItemChunk(items, new HashMap<>(), msg.cursor, cursor, last),
+                        DataManager.estimateSize(items), msg.cursor);
+            } else {
+                Map<Integer, Stamp> stamps = new HashMap<>();
+                items.forEach((key, itemData) -> stamps.put(key, itemData.getStamp()));
+                sent = sendRebalance(joiningNode, new SendItemChunk(new HashMap<>(), stamps, msg.cursor, cursor,
+                        last), (Integer.BYTES + Stamp.SIZE) * stamps.size(), msg.cursor);
+            }
+            if (!sent) {
+                // the joining node must not give up on a throttled source
+                joiningNode.tell(new ChunkQueued(msg.cursor), self());
+            }
+        });
 
         // logging
         Logs.ask_keys(Helper.getName(getSender()), Helper.getName(self()));
     }
 
     /**
-     * SendItems handler.
-     * Upon receiving the items, ask for the related data.
-     * @param msg SendItems message
+     * SendItemChunk handler.
+     * Merge the items in the storage, or register the stamps, and ask for the next chunk.
+     * Once every stream is completed, fetch the missing values.
+     * @param msg SendItemChunk message
+     * @see SendItemChunk
      */
-    public void onSendItems(SendItems msg) {
-        this.joinManager = new JoinManager(groupManager.replicasCount, msg.keys);
-        for (Integer dataKey : msg.keys) {
-            for (ActorRef node : groupManager.findDataNodes(dataKey)) {
-                AskItemData request = new AskItemData(dataKey);
-                node.tell(request, self());
-            }
+    public void onSendItemChunk(SendItemChunk msg) {
+        // ignore chunks arrived after a retry
+        if (joinManager == null || !msg.fromCursor.equals(joinManager.getCursor(getSender()))) {
+            return;
+        }
+        storeItems(msg.items);
+        joinManager.addValues(msg.items);
+        joinManager.addDigest(getSender(), msg.stamps);
+
+        // logging
+        Logs.items_reply(msg.items.keySet().toString(), Helper.getName(getSender()), Helper.getName(self()));
+
+        if (joinManager.addChunk(getSender(), msg.items.size(), msg.cursor, msg.last)) {
+            fetchMissingValues();
+        } else if (!msg.last) {
+            askItemChunk(getSender());
+        }
+    }
+
+    /**
+     * ChunkQueued handler.
+     * The source is alive but throttled: its retries are reset, so that it is not dropped while its chunk waits.
+     * @param msg ChunkQueued message
+     * @see ChunkQueued
+     */
+    public void onChunkQueued(ChunkQueued msg) {
+        if (joinManager != null && joinManager.getPendingSources().contains(getSender())
+                && msg.cursor.equals(joinManager.getCursor(getSender()))) {
+            joinManager.keepAlive(getSender());
         }
+    }
+
+    /**
+     * Ask the values of the keys for which a digest reported a newer version than the local one.
+     * If nothing is missing, announce the join.
+     */
+    private void fetchMissingValues() {
+        Map<ActorRef, Set<Integer>> missing = joinManager.getMissingValues();
+        if (missing.isEmpty()) {
+            completeJoin();
+            return;
+        }
+        joinManager.startFetches(missing.keySet());
+        missing.forEach((source, keys) -> source.tell(new AskItemValues(keys), self()));
+
+        getContext().system().scheduler().scheduleOnce(
+                Duration.create(maxTimeout, TimeUnit.MILLISECONDS),
+                getSelf(),
+                new TimeoutOnItemValues(),
+                timers(), getSelf()
+        );
+    }
+
+    /**
+     * AskItemValues handler.
+     * Send back the values of the requested keys.
+     * @param msg AskItemValues message
+     * @see AskItemValues
+     */
+    public void onAskItemValues(AskItemValues msg) {
+        ActorRef joiningNode = getSender();
+        gatherItems(gatherId -> new CollectKeys(gatherId, msg.keys), Integer.MAX_VALUE, items ->
+                sendRebalance(joiningNode, new SendItemValues(items), DataManager.estimateSize(items), msg.keys));
 
         // logging
-        Logs.items_reply(msg.keys.toString(), Helper.getName(getSender()), Helper.getName(self()));
+        Logs.ask_keys(Helper.getName(getSender()), Helper.getName(self()));
     }
 
     /**
-     * AskItemData handler.
-     * Send back the data related to the item.
-     * @param msg AskItemData message
+     * SendItemValues handler.
+     * Merge the values in the storage, once every value is received announce the join.
+     * @param msg SendItemValues message
+     * @see SendItemValues
      */
-    public void onAskItemData(AskItemData msg) {
-        Data itemData = nodeData.getData(msg.key);
-        getSender().tell(new SendItemData(msg.key, itemData), self());
+    public void onSendItemValues(SendItemValues msg) {
+        if (joinManager == null) {
+            return;
+        }
+        storeItems(msg.items);
+        joinManager.addValues(msg.items);
 
         // logging
-        Logs.ask_data(msg.key, Helper.getName(getSender()), Helper.getName(self()));
+        Logs.items_reply(msg.items.keySet().toString(), Helper.getName(getSender()), Helper.getName(self()));
 
+        if (joinManager.fetchCompleted(getSender(), msg.items.size())) {
+            completeJoin();
+        }
     }
 
     /**
-     * SendItemData handler.
-     * Store the data in the node and announce the join to the group.
-     * @param msg SendItemData message
-     * @see SendItemData
+     * TimeoutOnItemValues handler.
+     * Ask again the values still missing.
+     * If the retries are exhausted, announce the join with the values received so far, logging the missing keys.
+     * @param msg TimeoutOnItemValues message
+     * @see TimeoutOnItemValues
      */
-    public void onSendItemData(SendItemData msg) {
-        if (joinManager.addData(msg.key, msg.itemData)) {
-            HashMap<Integer, Data> items = joinManager.getData();
-            joinManager = null;
-            for (Map.Entry<Integer, Data> entry : items.entrySet()) {
-                Integer key = entry.getKey();
-                Data itemData = entry.getValue();
-                nodeData.putData(key, itemData);
-            }
-            for (ActorRef dataNode : groupManager.getGroupActorRef()) {
-                dataNode.tell(new AnnounceJoin(nodeKey), self());
-            }
-            groupManager.addNode(new DataNodeRef(nodeKey, self()));  // add itself to his group
+    public void onTimeoutOnItemValues(TimeoutOnItemValues msg) {
+        if (joinManager == null || !joinManager.hasPendingFetches()) {
+            return;
+        }
+        if (joinManager.retryFetches()) {
+            fetchMissingValues();
+        } else {
+            // logging
+            Logs.join_incomplete(joinManager.getMissingKeys().toString(), Helper.getName(self()));
+
+            completeJoin();
+        }
+    }
+
+    /**
+     * TimeoutOnChunk handler.
+     * Resume the stream from the cursor, or drop the source if it is not answering.
+     * @param msg TimeoutOnChunk message
+     * @see TimeoutOnChunk
+     */
+    public void onTimeoutOnChunk(TimeoutOnChunk msg) {
+        if (joinManager == null
+                || !joinManager.getPendingSources().contains(msg.source)
+                || !msg.cursor.equals(joinManager.getCursor(msg.source))) {
+            return;
         }
+        if (joinManager.retry(msg.source)) {
+            askItemChunk(msg.source);
+        } else if (joinManager.isCompleted()) {
+            fetchMissingValues();
+        }
+    }
+
+    /**
+     * Add the node to the group and announce the join to the neighbors.
+     */
+    private void completeJoin() {
+        long now = System.currentTimeMillis();
 
         // logging
-        Logs.data_reply(msg.key, msg.itemData, Helper.getName(getSender()), Helper.getName(self()));
+        Logs.join_throughput(joinManager.getReceivedItems(), joinManager.getElapsedTime(now),
+                joinManager.getThroughput(now), Helper.getName(self()));
+        joinManager = null;
+
+        // add itself to his group and tell the neighbors, the others will know through gossip
+        MembershipDelta delta = groupManager.recordJoin(new DataNodeRef(nodeKey, self()));
+        pruneMonitored();
+        if (gossipTimer.isCancelled()) {
+            // the node left the group before
+            startMembershipTimers();
+        }
+        for (ActorRef dataNode : groupManager.findNeighbors(nodeKey)) {
+            if (dataNode != self()) {
+                dataNode.tell(new AnnounceJoin(nodeKey, delta), self());
+            }
+        }
     }
 
     /**
@@ -1026,10 +2117,8 @@ public class DataNode extends AbstractActor {
      * @see AnnounceJoin
      */
     public void onAnnounceJoin(AnnounceJoin msg) {
-        groupManager.addNode(new DataNodeRef(msg.nodeKey, getSender()));
-
-        // check if the node needs to drop items
-        dropUselessItems();
+        // add the node to the group and check if the node needs to drop items
+        applyMembershipDelta(msg.delta);
 
         // logging
         Logs.join(msg.nodeKey, Helper.getName(getSender()), Helper.getName(self()));
@@ -1039,26 +2128,111 @@ public class DataNode extends AbstractActor {
 
     /**
      * AskToLeave handler.
-     * Informs the group that the node is leaving and sends its items to the neighbors.
+     * Groups the items by the node that will become responsible for them and sends them in batches.
+     * The node leaves the group only once every batch has been acknowledged.
      * @param msg AskToLeave message
      * @see AskToLeave
      */
     public void onAskToLeave(AskToLeave msg) {
-        // announce to others
-        for (ActorRef node : groupManager.getGroupActorRef()) {
-            node.tell(new AnnounceLeave(), self());
+        if (leaveManager != null) {
+            return;
         }
+        leaveManager = new LeaveManager(LEAVE_MAX_RETRIES);
+
+        // logging
+        Logs.ask_leave(Helper.getName(getSender()), Helper.getName(self()));
+
+        gatherItems(gatherId -> new CollectItems(gatherId, List.of(KeyRange.all()), null, Integer.MAX_VALUE),
+                Integer.MAX_VALUE, allItems -> {
+            // only the node after the replicas of a key gains it when this node leaves
+            Map<ActorRef, SortedMap<Integer, Data>> itemsByOwner = new HashMap<>();
+            allItems.forEach((k, v) -> {
+                ActorRef newOwner = groupManager.findNextReplica(k);
+                if (newOwner != null) {
+                    itemsByOwner.computeIfAbsent(newOwner, node -> new TreeMap<>()).put(k, v);
+                }
+            });
+            itemsByOwner.forEach((node, items) -> leaveManager.addItems(node, items, LEAVE_BATCH_SIZE));
 
-        // send data to the node that will become responsible for
-        groupManager.removeNode(self());
-        nodeData.getAllData().forEach((k, v) -> {
-            for (ActorRef node : groupManager.findDataNodes(k)) {
-                node.tell(new NewData(k, v), self());
+            if (leaveManager.isCompleted()) {
+                completeLeave();
+            } else {
+                sendPendingBatches();
             }
         });
+    }
 
-        // logging
-        Logs.ask_leave(Helper.getName(getSender()), Helper.getName(self()));
+    /**
+     * Send every batch that has not been acknowledged yet and schedule the timeout.
+     */
+    private void sendPendingBatches() {
+        for (Map.Entry<Integer, Batch> entry : leaveManager.getPendingBatches().entrySet()) {
+            Batch batch = entry.getValue();
+            sendRebalance(batch.getDestination(), new NewDataBatch(entry.getKey(), batch.getItems()),
+                    DataManager.estimateSize(batch.getItems()), entry.getKey());
+
+            // logging
+            Logs.handoff(batch.getItems().size(), Helper.getName(self()), Helper.getName(batch.getDestination()));
+        }
+
+        // the batches still in the backlog are sent at the rebalancing rate
+        getContext().system().scheduler().scheduleOnce(
+                Duration.create(maxTimeout + rebalanceGovernor.getBacklogDelay(), TimeUnit.MILLISECONDS),
+                getSelf(),
+                new TimeoutOnLeave(),
+                timers(), getSelf()
+        );
+    }
+
+    /**
+     * Remove the node from the group and announce the leave to the neighbors.
+     */
+    private void completeLeave() {
+        leaveManager = null;
+
+        // announce to the neighbors, the others will know through gossip
+        List<ActorRef> neighbors = groupManager.findNeighbors(nodeKey);
+        MembershipDelta delta = groupManager.recordLeave(nodeKey, self());
+        for (ActorRef node : neighbors) {
+            if (node != self()) {
+                node.tell(new AnnounceLeave(delta), self());
+            }
+        }
+        gossipTimer.cancel();
+        heartbeatTimer.cancel();
+    }
+
+    /**
+     * AckNewData handler.
+     * Once every batch has been acknowledged, leave the group.
+     * @param msg AckNewData message
+     * @see AckNewData
+     */
+    public void onAckNewData(AckNewData msg) {
+        if (leaveManager != null && leaveManager.ack(msg.batchId)) {
+            completeLeave();
+        }
+    }
+
+    /**
+     * TimeoutOnLeave handler.
+     * Send again the batches that have not been acknowledged.
+     * If the retries are exhausted the leave is aborted and the node stays in the group, so no item is lost.
+     * @param msg TimeoutOnLeave message
+     * @see TimeoutOnLeave
+     */
+    public void onTimeoutOnLeave(TimeoutOnLeave msg) {
+        if (leaveManager == null) {
+            return;
+        }
+        if (leaveManager.retry()) {
+            sendPendingBatches();
+        } else {
+            leaveManager = null;
+
+            // logging
+            Logs.leave_aborted(Helper.getName(self()));
+        }
     }
 
     /**
@@ -1069,20 +2243,21 @@ public class DataNode extends AbstractActor {
      */
     public void onAnnounceLeave(AnnounceLeave msg) {
         // remove the sender
-        groupManager.removeNode(getSender());
+        applyMembershipDelta(msg.delta);
 
         // logging
         Logs.leave(Helper.getName(getSender()), Helper.getName(self()));
     }
 
     /**
-     * NewData handler
-     * Store data and items of the leaving node.
-     * @param msg NewData message
-     * @see NewData
+     * NewDataBatch handler
+     * Store the items of the leaving node and acknowledge the batch.
+     * @param msg NewDataBatch message
+     * @see NewDataBatch
      */
-    public void onNewData(NewData msg) {
-        nodeData.putNewData(msg.key, msg.data);
+    public void onNewDataBatch(NewDataBatch msg) {
+        storeItems(msg.items);
+        getSender().tell(new AckNewData(msg.batchId), self());
     }
 
     /* ------- CRASH ------- */
@@ -1094,6 +2269,11 @@ public class DataNode extends AbstractActor {
      * @see AskCrash
      */
     public void onAskCrash(AskCrash msg) {
+        // the pending rebalancing messages are lost with the crash
+        rebalanceGovernor.clear();
+        for (ActorRef coordinator : coordinators) {
+            coordinator.tell(msg, self());
+        }
         crash();
 
         // logging
@@ -1120,8 +2300,7 @@ public class DataNode extends AbstractActor {
      * @param msg AskGroupToRecover message
      */
     public void onAskGroupToRecover(AskGroupToRecover msg) {
-        List<DataNodeRef> group = groupManager.getGroup();
-        getSender().tell(new SendGroupToRecover(group), self());
+        getSender().tell(new SendGroupToRecover(groupManager.getSnapshot(), groupManager.getRangeFloors()), self());
 
         // logging
         Logs.ask_group(Helper.getName(getSender()), Helper.getName(self()));
@@ -1129,25 +2308,32 @@ public class DataNode extends AbstractActor {
 
     /**
      * SendGroupToRecover handler.
-     * Select the item for which it is responsible and ask for the data.
-     * Schedule a timeout message.
+     * Select the item for which it is responsible and ask the neighbors for the missing or newer data,
+     * sending them the stamps (version and timestamp) of the items it still holds.
+     * Schedule a timeout message, in case some neighbor does not answer.
      * @param msg SendGroupToRecover message
      */
     public void onSendGroupToRecover(SendGroupToRecover msg) {
-        groupManager.addNewGroup(msg.group);
-        dropUselessItems();
-
-//        System.out.print("Client " + Helper.getName(self()));
-        for (ActorRef node : groupManager.findNeighbors(nodeKey)) {
-//            System.out.print("Client " + node.path().name());
-            node.tell(new AskDataToRecover(nodeKey), self());
-        }
-        getContext().system().scheduler().scheduleOnce(
-                Duration.create(maxTimeout, TimeUnit.MILLISECONDS),
-                getSelf(),
-                new TimeoutRecover(),
-                getContext().system().dispatcher(), getSelf()
-        );
+        groupManager.addNewGroup(msg.snapshot, msg.rangeFloors, self());
+        // the data held before the crash may refer to any range
+        dropLostRanges(List.of(KeyRange.all()));
+
+        gatherItems(gatherId -> new CollectItems(gatherId, List.of(KeyRange.all()), null, Integer.MAX_VALUE),
+                Integer.MAX_VALUE, allItems -> {
+            Map<Integer, Stamp> stamps = new HashMap<>();
+            allItems.forEach((key, itemData) -> stamps.put(key, itemData.getStamp()));
+            recoveryPeers = new HashSet<>(groupManager.findNeighbors(nodeKey));
+            recoveryPeers.remove(self());
+            for (ActorRef node : recoveryPeers) {
+                node.tell(new AskDataToRecover(nodeKey, stamps), self());
+            }
+            recoverTimer = getContext().system().scheduler().scheduleOnce(
+                    Duration.create(maxTimeout, TimeUnit.MILLISECONDS),
+                    getSelf(),
+                    new TimeoutRecover(),
+                    timers(), getSelf()
+            );
+        });
 
         // logging
         Logs.group_reply(Helper.getName(getSender()), Helper.getName(self()));
@@ -1156,15 +2342,22 @@ public class DataNode extends AbstractActor {
 
     /**
      * AskData handler.
-     * Sends back the data of the requested item.
+     * Sends back the items of the crashed node that it misses or holds older, blind writes included.
      * @param msg AskDataToRecover message
      */
     public void onAskDataToRecover(AskDataToRecover msg) {
         ActorRef crashedNode = getSender();
-        Map<Integer, Data> dataToSend = nodeData.getAllData().entrySet().stream()
-                .filter(item -> groupManager.findDataNodes(item.getKey()).contains(crashedNode))
-                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-        crashedNode.tell(new SendDataToRecover(dataToSend), self());
+        List<KeyRange> ranges = groupManager.getOwnedRanges(crashedNode);
+        gatherItems(gatherId -> new CollectItems(gatherId, ranges, null, Integer.MAX_VALUE), Integer.MAX_VALUE, items -> {
+            Map<Integer, Data> dataToSend = new HashMap<>();
+            items.forEach((key, itemData) -> {
+                Stamp stamp = msg.stamps.get(key);
+                if (stamp == null || itemData.getStamp().isNewer(stamp)) {
+                    dataToSend.put(key, itemData);
+                }
+            });
+            sendRebalance(crashedNode, new SendDataToRecover(dataToSend), DataManager.estimateSize(dataToSend));
+        });
 
         // logging
         Logs.ask_data(msg.crashedNodeId, Helper.getName(getSender()), Helper.getName(self()));
@@ -1172,36 +2365,326 @@ public class DataNode extends AbstractActor {
 
     /**
      * TimeoutRecover handler.
-     * Make the node recover.
+     * Make the node recover, even if some neighbor did not answer.
      * @param msg TimeoutRecover message
      */
     public void onTimeoutRecover(TimeoutRecover msg) {
+        recoveryPeers = null;
         recover();
 
         // logging
         Logs.timeout(TimeoutType.RECOVER, "", Helper.getName(getSender()), Helper.getName(self()));
     }
 
-    /**
-     * TimeoutSendVersion handler.
-     * Remove the lock from the key.
-     * @param msg TimeoutSendVersion message
-     * @see TimeoutSendVersion
-     */
-    public void onTimeoutSendVersion(TimeoutSendVersion msg) {
-        nodeData.removeBlock(msg.key);
-    }
-
     /**
      * SendDataToRecover handler.
-     * Store the data.
+     * Store the data, once every neighbor has answered make the node recover.
      * @param msg SendDataToRecover message
      */
     public void onSendDataToRecover(SendDataToRecover msg) {
-        nodeData.add(msg.data);
+        storeItems(msg.data);
 
         // logging
         Logs.data_recover(msg.data, Helper.getName(getSender()), Helper.getName(self()));
+
+        // recover as soon as every neighbor has answered
+        if (recoveryPeers != null && recoveryPeers.remove(getSender()) && recoveryPeers.isEmpty()) {
+            recoveryPeers = null;
+            recoverTimer.cancel();
+            recover();
+        }
+    }
+
+    /* ------- MEMBERSHIP GOSSIP ------- */
+
+    /**
+     * Apply a membership delta received from another node.
+     * The deltas missed are received through gossip, in any order.
+     * @param delta the membership delta
+     */
+    private void applyMembershipDelta(MembershipDelta delta) {
+        List<KeyRange> oldRanges = groupManager.getOwnedRanges(self());
+        if (groupManager.applyDelta(delta)) {
+            dropLostRanges(oldRanges);
+            pruneMonitored();
+        }
+    }
+
+    /**
+     * GossipTick handler.
+     * Sends the digest of the members to some random nodes of the group,
+     * and drops the tombstones of the nodes that left long ago.
+     * @param msg GossipTick message
+     * @see GossipTick
+     */
+    public void onGossipTick(GossipTick msg) {
+        long now = System.currentTimeMillis();
+        groupManager.collectTombstones(now);
+        List<ActorRef> suspected = groupManager.getSuspected(now);
+        for (ActorRef node : groupManager.getGossipTargets(self(), GOSSIP_FANOUT)) {
+            node.tell(new GossipDigest(groupManager.getMembershipDigest(), suspected), self());
+        }
+    }
+
+    /**
+     * GossipDigest handler.
+     * If the sender knows a different group, sends it the version of every known node to get the changes it misses.
+     * @param msg GossipDigest message
+     * @see GossipDigest
+     */
+    public void onGossipDigest(GossipDigest msg) {
+        groupManager.reportSuspected(msg.suspected, self(), System.currentTimeMillis());
+        if (msg.digest == groupManager.getMembershipDigest()) {
+            return;
+        }
+        getSender().tell(new AskMembershipDeltas(groupManager.getVersions()), self());
+    }
+
+    /**
+     * AskMembershipDeltas handler.
+     * Sends back the changes the sender misses, and asks the ones it knows and this node misses:
+     * concurrent changes are exchanged both ways.
+     * @param msg AskMembershipDeltas message
+     * @see AskMembershipDeltas
+     */
+    public void onAskMembershipDeltas(AskMembershipDeltas msg) {
+        List<MembershipDelta> missing = groupManager.getMissingChanges(msg.versions);
+        if (!missing.isEmpty()) {
+            getSender().tell(new SendMembershipDeltas(missing), self());
+        }
+        if (groupManager.isBehind(msg.versions)) {
+            getSender().tell(new AskMembershipDeltas(groupManager.getVersions()), self());
+        }
+    }
+
+    /**
+     * SendMembershipDeltas handler.
+     * Applies the changes and drops the items it is not responsible anymore.
+     * @param msg SendMembershipDeltas message
+     * @see SendMembershipDeltas
+     */
+    public void onSendMembershipDeltas(SendMembershipDeltas msg) {
+        List<KeyRange> oldRanges = groupManager.getOwnedRanges(self());
+        if (groupManager.mergeChanges(msg.deltas)) {
+            dropLostRanges(oldRanges);
+            pruneMonitored();
+
+            // logging
+            Logs.epoch(groupManager.getEpoch(), Helper.getName(getSender()), Helper.getName(self()));
+        }
+    }
+
+    /* ------- FAILURE DETECTION ------- */
+
+    /**
+     * HeartbeatTick handler.
+     * Sends a heartbeat to the neighbors.
+     * @param msg HeartbeatTick message
+     * @see HeartbeatTick
+     */
+    public void onHeartbeatTick(HeartbeatTick msg) {
+        if (!groupManager.isMember(self())) {
+            return;
+        }
+        for (ActorRef node : groupManager.findNeighbors(nodeKey)) {
+            if (node != self()) {
+                node.tell(new Heartbeat(), self());
+            }
+        }
+        replayHints();
+    }
+
+    /**
+     * Heartbeat handler.
+     * Updates the suspicion level of the sender, if it is a neighbor:
+     * a node with an older ring may still send heartbeats to its former neighbors.
+     * @param msg Heartbeat message
+     * @see Heartbeat
+     */
+    public void onHeartbeat(Heartbeat msg) {
+        if (!groupManager.isMember(self()) || !groupManager.findNeighbors(nodeKey).contains(getSender())) {
+            return;
+        }
+        groupManager.heartbeat(getSender(), System.currentTimeMillis(), HEARTBEAT_INTERVAL);
+    }
+
+    /* ------- HINTED HANDOFF ------- */
+
+    /**
+     * Replay a batch of hints to every target that is reachable again.
+     * The hints of the nodes that left the group are dropped.
+     */
+    private void replayHints() {
+        long now = System.currentTimeMillis();
+        for (ActorRef target : hintManager.getTargets()) {
+            if (!groupManager.isMember(target)) {
+                hintManager.removeTarget(target);
+            } else if (!groupManager.isSuspected(target, now)) {
+                Map<Integer, Data> batch = hintManager.nextBatch(target, HINT_BATCH_SIZE, now, HINT_REPLAY_INTERVAL);
+                if (!batch.isEmpty()) {
+                    sendRebalance(target, new ReplayHints(batch), DataManager.estimateSize(batch));
+
+                    // logging
+                    Logs.hints(batch.size(), Helper.getName(self()), Helper.getName(target));
+                }
+            }
+        }
+    }
+
+    /**
+     * ReplayHints handler.
+     * Stores the missed data items it is responsible for and acknowledges them.
+     * @param msg ReplayHints message
+     * @see ReplayHints
+     */
+    public void onReplayHints(ReplayHints msg) {
+        Map<Integer, Data> ownedData = new HashMap<>();
+        Map<Integer, Stamp> stamps = new HashMap<>();
+        for (Map.Entry<Integer, Data> entry : msg.data.entrySet()) {
+            if (groupManager.isResponsible(entry.getKey(), self())) {
+                ownedData.put(entry.getKey(), entry.getValue());
+            }
+            stamps.put(entry.getKey(), entry.getValue().getStamp());
+        }
+        storeItems(ownedData);
+        getSender().tell(new AckHints(stamps), self());
+    }
+
+    /**
+     * AckHints handler.
+     * Removes the acknowledged hints.
+     * @param msg AckHints message
+     * @see AckHints
+     */
+    public void onAckHints(AckHints msg) {
+        hintManager.ackHints(getSender(), msg.stamps);
+    }
+
+    /* ------- REBALANCING ------- */
+
+    /**
+     * RebalanceTick handler.
+     * Adapts the rate to the client latency and sends the messages of the backlog allowed by the governor.
+     * @param msg RebalanceTick message
+     * @see RebalanceTick
+     */
+    public void onRebalanceTick(RebalanceTick msg) {
+        long now = System.currentTimeMillis();
+        rebalanceGovernor.adjust(now);
+        for (Transfer transfer : rebalanceGovernor.drain(now)) {
+            transfer.getTarget().tell(transfer.getMessage(), self());
+        }
+    }
+
+    /**
+     * SetRebalanceLimits handler.
+     * Changes the limits of the governor.
+     * @param msg SetRebalanceLimits message
+     * @see SetRebalanceLimits
+     */
+    public void onSetRebalanceLimits(SetRebalanceLimits msg) {
+        rebalanceGovernor.configure(msg.bytesRate, msg.messagesRate, msg.targetLatency);
+        onAskRebalanceStatus(new AskRebalanceStatus());
+    }
+
+    /**
+     * AskRebalanceStatus handler.
+     * Prints the current rate and backlog of the governor.
+     * @param msg AskRebalanceStatus message
+     * @see AskRebalanceStatus
+     */
+    public void onAskRebalanceStatus(AskRebalanceStatus msg) {
+        Logs.rebalance(rebalanceGovernor.getBytesRate(), rebalanceGovernor.getMessagesRate(),
+                rebalanceGovernor.getBacklogSize(), rebalanceGovernor.getBacklogBytes(),
+                rebalanceGovernor.getLatencyAverage(), Helper.getName(self()));
+    }
+
+    /**
+     * SetRateLimits handler.
+     * Changes the rate of client requests accepted by the node.
+     * @param msg SetRateLimits message
+     * @see SetRateLimits
+     */
+    public void onSetRateLimits(SetRateLimits msg) {
+        rateLimiter.configure(msg.clientRate, msg.clientBurst, msg.globalRate, msg.globalBurst);
+    }
+
+    /**
+     * SetWriteMode handler.
+     * Changes how the coordinators of the node perform the updates.
+     * @param msg SetWriteMode message
+     * @see SetWriteMode
+     */
+    public void onSetWriteMode(SetWriteMode msg) {
+        this.writeMode = msg.mode;
+    }
+
+    /**
+     * SetReadCache handler.
+     * Changes the capacity of the read cache of the coordinators of the node.
+     * @param msg SetReadCache message
+     * @see SetReadCache
+     */
+    public void onSetReadCache(SetReadCache msg) {
+        for (ActorRef coordinator : coordinators) {
+            coordinator.tell(msg, self());
+        }
+    }
+
+    /**
+     * AskReadCacheStatus handler.
+     * Asks the coordinators of the node to print the state of their read cache.
+     * @param msg AskReadCacheStatus message
+     * @see AskReadCacheStatus
+     */
+    public void onAskReadCacheStatus(AskReadCacheStatus msg) {
+        for (ActorRef coordinator : coordinators) {
+            coordinator.tell(msg, self());
+        }
+    }
+
+    /**
+     * AskRing handler.
+     * Sends the ring to the client.
+     * @param msg AskRing message
+     * @see AskRing
+     */
+    public void onAskRing(AskRing msg) {
+        getSender().tell(currentRing(), self());
+    }
+
+    /* ------- COORDINATORS ------- */
+
+    /**
+     * RequestCompleted handler.
+     * Records the latency of a client request, used to adapt the rebalancing rate.
+     * @param msg RequestCompleted message
+     * @see RequestCompleted
+     */
+    public void onRequestCompleted(RequestCompleted msg) {
+        rebalanceGovernor.recordLatency(msg.latency);
+    }
+
+    /**
+     * AddHint handler.
+     * Keeps a hint for a replica that may miss an update.
+     * @param msg AddHint message
+     * @see AddHint
+     */
+    public void onAddHint(AddHint msg) {
+        hintManager.addHint(msg.target, msg.key, msg.data);
+    }
+
+    /* ------- PARTITIONS ------- */
+
+    /**
+     * CollectedItems handler.
+     * Adds the items collected by a partition to the gather.
+     * @param msg CollectedItems message
+     * @see CollectedItems
+     */
+    public void onCollectedItems(CollectedItems msg) {
+        partitionManager.addGatherReply(msg.gatherId, msg.items);
     }
 
     /* ------- DEBUG & TESTING ------- */
@@ -1245,10 +2728,9 @@ public class DataNode extends AbstractActor {
      * @see PrintStatus
      */
     public void onPrintStatus(PrintStatus msg) {
-        for (int i : nodeData.getKeys()) {
-            Data tmp = nodeData.getData(i);
-            Logs.status(i, tmp.getValue(), tmp.getVersion(), Helper.getName(self()));
-        }
+        gatherItems(gatherId -> new CollectItems(gatherId, List.of(KeyRange.all()), null, Integer.MAX_VALUE),
+                Integer.MAX_VALUE, items -> items.forEach((key, itemData) ->
+                        Logs.status(key, itemData.getValue(), itemData.getVersion(), Helper.getName(self()))));
     }
 
 
@@ -1260,28 +2742,52 @@ public class DataNode extends AbstractActor {
                 .match(WriteData.class, this::onWriteData)
                 .match(AskReadData.class, this::onAskReadData)
                 .match(ReadData.class, this::onReadData)
-                .match(TimeoutOnRead.class, this::onTimeoutOnRead)
-                .match(SendRead.class, this::onSendRead)
+                .match(AskReadVersion.class, this::onAskReadVersion)
                 .match(AskUpdateData.class, this::onAskUpdateData)
                 .match(AskVersion.class, this::onAskVersion)
-                .match(SendVersion.class, this::onSendVersion)
-                .match(TimeoutOnUpdate.class, this::onTimeoutOnUpdate)
                 .match(UpdateData.class, this::onUpdateData)
+                .match(BlindUpdate.class, this::onBlindUpdate)
+                .match(SequenceUpdate.class, this::onSequenceUpdate)
+                .match(ReplicateUpdate.class, this::onReplicateUpdate)
+                .match(ChainUpdate.class, this::onChainUpdate)
                 .match(AskToJoin.class, this::onAskToJoin)
                 .match(AskNodeGroup.class, this::onAskNodeGroup)
                 .match(SendNodeGroup.class, this::onSendNodeGroup)
-                .match(AskItems.class, this::onAskItems)
-                .match(SendItems.class, this::onSendItems)
-                .match(AskItemData.class, this::onAskItemData)
-                .match(SendItemData.class, this::onSendItemData)
+                .match(AskItemChunk.class, this::onAskItemChunk)
+                .match(SendItemChunk.class, this::onSendItemChunk)
+                .match(ChunkQueued.class, this::onChunkQueued)
+                .match(TimeoutOnChunk.class, this::onTimeoutOnChunk)
+                .match(AskItemValues.class, this::onAskItemValues)
+                .match(SendItemValues.class, this::onSendItemValues)
+                .match(TimeoutOnItemValues.class, this::onTimeoutOnItemValues)
                 .match(AnnounceJoin.class, this::onAnnounceJoin)
                 .match(AskToLeave.class, this::onAskToLeave)
                 .match(AnnounceLeave.class, this::onAnnounceLeave)
-                .match(NewData.class, this::onNewData)
+                .match(NewDataBatch.class, this::onNewDataBatch)
+                .match(AckNewData.class, this::onAckNewData)
+                .match(TimeoutOnLeave.class, this::onTimeoutOnLeave)
                 .match(AskCrash.class, this::onAskCrash)
                 .match(AskGroupToRecover.class, this::onAskGroupToRecover)
                 .match(AskDataToRecover.class, this::onAskDataToRecover)
-                .match(TimeoutSendVersion.class, this::onTimeoutSendVersion)
+                .match(GossipTick.class, this::onGossipTick)
+                .match(GossipDigest.class, this::onGossipDigest)
+                .match(AskMembershipDeltas.class, this::onAskMembershipDeltas)
+                .match(SendMembershipDeltas.class, this::onSendMembershipDeltas)
+                .match(HeartbeatTick.class, this::onHeartbeatTick)
+                .match(Heartbeat.class, this::onHeartbeat)
+                .match(ReplayHints.class, this::onReplayHints)
+                .match(AckHints.class, this::onAckHints)
+                .match(RebalanceTick.class, this::onRebalanceTick)
+                .match(SetRebalanceLimits.class, this::onSetRebalanceLimits)
+                .match(AskRebalanceStatus.class, this::onAskRebalanceStatus)
+                .match(SetRateLimits.class, this::onSetRateLimits)
+                .match(SetWriteMode.class, this::onSetWriteMode)
+                .match(SetReadCache.class, this::onSetReadCache)
+                .match(AskReadCacheStatus.class, this::onAskReadCacheStatus)
+                .match(AskRing.class, this::onAskRing)
+                .match(CollectedItems.class, this::onCollectedItems)
+                .match(RequestCompleted.class, this::onRequestCompleted)
+                .match(AddHint.class, this::onAddHint)
                 .match(AskStatus.class, this::onAskStatus) // DEBUG
                 .match(PrintStatus.class, this::onPrintStatus) // DEBUG
                 .build();
@@ -1293,6 +2799,7 @@ public class DataNode extends AbstractActor {
                 .match(SendGroupToRecover.class, this::onSendGroupToRecover)
                 .match(TimeoutRecover.class, this::onTimeoutRecover)
                 .match(SendDataToRecover.class, this::onSendDataToRecover)
+                .match(CollectedItems.class, this::onCollectedItems)
                 .matchAny(msg -> {})
                 .build();
     }
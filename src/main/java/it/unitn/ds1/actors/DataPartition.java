@@ -0,0 +1,469 @@
+package it.unitn.ds1.actors;
+
+import akka.actor.*;
+import it.unitn.ds1.actors.DataNode.AckUpdate;
+import it.unitn.ds1.actors.DataNode.AskReadVersion;
+import it.unitn.ds1.actors.DataNode.AskVersion;
+import it.unitn.ds1.actors.DataNode.BlindUpdate;
+import it.unitn.ds1.actors.DataNode.ChainUpdate;
+import it.unitn.ds1.actors.DataNode.ReadData;
+import it.unitn.ds1.actors.DataNode.ReplicateUpdate;
+import it.unitn.ds1.actors.DataNode.SendRead;
+import it.unitn.ds1.actors.DataNode.SendReadVersion;
+import it.unitn.ds1.actors.DataNode.SendVersion;
+import it.unitn.ds1.actors.DataNode.SequenceUpdate;
+import it.unitn.ds1.actors.DataNode.TimeoutSendVersion;
+import it.unitn.ds1.actors.DataNode.UpdateData;
+import it.unitn.ds1.actors.DataNode.WriteData;
+import it.unitn.ds1.logger.ErrorType;
+import it.unitn.ds1.logger.Logs;
+import it.unitn.ds1.managers.DataManager;
+import it.unitn.ds1.managers.DataManager.Data;
+import it.unitn.ds1.managers.GroupManager.KeyRange;
+import it.unitn.ds1.utils.Helper;
+import it.unitn.ds1.utils.Profile;
+import scala.concurrent.ExecutionContextExecutor;
+import scala.concurrent.duration.Duration;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * DataPartition
+ * Actor that stores a hash slice of the keys of a data node.
+ * It is a child of the data node, that routes to it the replica operations on its keys,
+ * so that the partitions of a node work in parallel.
+ */
+public class DataPartition extends AbstractActor {
+    private final int maxTimeout; // in ms
+    private final String nodeName; // name of the parent data node, used in the logs
+    private final DataManager nodeData;
+
+    public DataPartition(int maxTimeout, String nodeName) {
+        this.maxTimeout = maxTimeout;
+        this.nodeName = nodeName;
+        this.nodeData = new DataManager();
+    }
+
+    static public Props props(int maxTimeout, String nodeName) {
+        return Props.create(DataPartition.class, () -> new DataPartition(maxTimeout, nodeName))
+                .withDispatcher(Profile.STORAGE_DISPATCHER);
+    }
+
+    /**
+     * Get the dispatcher that runs the scheduled messages.
+     * @return the timer dispatcher
+     */
+    private ExecutionContextExecutor timers() {
+        return getContext().system().dispatchers().lookup(Profile.TIMER_DISPATCHER);
+    }
+
+    /* ------- MESSAGES ------- */
+
+    /**
+     * StoreItems
+     * A message that merges a set of items in the partition, keeping the most recent versions.
+     * It is sent by the data node and received by its partitions.
+     */
+    public static class StoreItems implements Serializable {
+        public final Map<Integer, Data> items;
+
+        /**
+         * @param items the items to store
+         */
+        public StoreItems(Map<Integer, Data> items) {
+            this.items = Collections.unmodifiableMap(new HashMap<>(items));
+        }
+    }
+
+    /**
+     * DropRanges
+     * A message that removes the items of the ranges the data node is not responsible anymore.
+     * It is sent by the data node and received by its partitions.
+     */
+    public static class DropRanges implements Serializable {
+        public final List<KeyRange> ranges;
+
+        /**
+         * @param ranges the ranges to drop
+         */
+        public DropRanges(List<KeyRange> ranges) {
+            this.ranges = Collections.unmodifiableList(new ArrayList<>(ranges));
+        }
+    }
+
+    /**
+     * CollectItems
+     * A message that requests the items of some ranges that follow a cursor, sorted by key.
+     * It is sent by the data node and received by its partitions.
+     */
+    public static class CollectItems implements Serializable {
+        public final int gatherId;
+        public final List<KeyRange> ranges;
+        public final Integer cursor;
+        public final int limit;
+
+        /**
+         * @param gatherId the identifier of the gather
+         * @param ranges the ranges of the requested keys
+         * @param cursor the last key already read, null to start from the first key
+         * @param limit the maximum number of items
+         */
+        public CollectItems(int gatherId, List<KeyRange> ranges, Integer cursor, int limit) {
+            this.gatherId = gatherId;
+            this.ranges = Collections.unmodifiableList(new ArrayList<>(ranges));
+            this.cursor = cursor;
+            this.limit = limit;
+        }
+    }
+
+    /**
+     * CollectKeys
+     * A message that requests the items of a set of keys.
+     * It is sent by the data node and received by its partitions.
+     */
+    public static class CollectKeys implements Serializable {
+        public final int gatherId;
+        public final Set<Integer> keys;
+
+        /**
+         * @param gatherId the identifier of the gather
+         * @param keys the requested keys
+         */
+        public CollectKeys(int gatherId, Set<Integer> keys) {
+            this.gatherId = gatherId;
+            this.keys = Collections.unmodifiableSet(new HashSet<>(keys));
+        }
+    }
+
+    /**
+     * CollectedItems
+     * A message that returns the items requested by a gather.
+     * It is sent by a partition and received by its data node.
+     */
+    public static class CollectedItems implements Serializable {
+        public final int gatherId;
+        public final Map<Integer, Data> items;
+
+        /**
+         * @param gatherId the identifier of the gather
+         * @param items the requested items
+         */
+        public CollectedItems(int gatherId, Map<Integer, Data> items) {
+            this.gatherId = gatherId;
+            this.items = Collections.unmodifiableMap(new HashMap<>(items));
+        }
+    }
+
+    /* ------- HANDLERS ------- */
+
+    /**
+     * WriteData handler.
+     * Performs the write operation.
+     * @param msg WriteData message
+     * @see WriteData
+     */
+    public void onWriteData(WriteData msg) {
+        if (!nodeData.isPresent(msg.key)) {
+            nodeData.put(msg.key, msg.value);
+            Data elem = nodeData.getData(msg.key);
+
+            // logging
+            Logs.write(msg.key, elem.getValue(), Helper.getName(getSender()), nodeName);
+        } else {
+            Logs.error(ErrorType.EXISTING_KEY, msg.key, nodeName);
+        }
+    }
+
+    /**
+     * ReadData handler
+     * Gets the value associated with the key and sends it back to the coordinator,
+     * or to the client on a direct read.
+     * @param msg ReadData message
+     * @see ReadData
+     */
+    public void onReadData(ReadData msg) {
+        if (nodeData.isPresent(msg.key)) {
+            if (!nodeData.isBlocked(msg.key)) {
+                Data readedData = nodeData.getData(msg.key);
+                ActorRef replyTo = msg.replyTo != null ? msg.replyTo : getSender();
+                replyTo.tell(new SendRead(readedData, msg.requestId), getContext().getParent());
+
+                // logging
+                Logs.read(msg.key, msg.requestId, Helper.getName(getSender()), nodeName);
+            } else {
+                // data is locked
+                Logs.error(ErrorType.LOCKED_KEY, msg.key, nodeName);
+            }
+        } else {
+            // data is not present
+            Logs.error(ErrorType.UNKNOWN_KEY, msg.key, nodeName);
+        }
+    }
+
+    /**
+     * AskReadVersion handler.
+     * Sends back the version of the requested item if it is not locked, without locking it.
+     * @param msg AskReadVersion message
+     * @see AskReadVersion
+     */
+    public void onAskReadVersion(AskReadVersion msg) {
+        if (nodeData.isPresent(msg.key)) {
+            if (!nodeData.isBlocked(msg.key)) {
+                Data readedData = nodeData.getData(msg.key);
+                SendReadVersion version = new SendReadVersion(readedData.getVersion(), readedData.getTimestamp(),
+                        msg.requestId);
+                getSender().tell(version, getContext().getParent());
+            } else {
+                // data is locked
+                Logs.error(ErrorType.LOCKED_KEY, msg.key, nodeName);
+            }
+        } else {
+            // data is not present
+            Logs.error(ErrorType.UNKNOWN_KEY, msg.key, nodeName);
+        }
+    }
+
+    /**
+     * AskVersion handler.
+     * Sends back the version of the requested item if it is not locked.
+     * Schedule a timeout message
+     * @param msg AskVersion message
+     * @see AskVersion
+     */
+    public void onAskVersion(AskVersion msg) {
+        if (nodeData.isPresent(msg.key)) {
+            if (!nodeData.isBlocked(msg.key)) {
+                Data readedData = nodeData.getDataAndBlock(msg.key);
+                SendVersion version = new SendVersion(readedData.getVersion(), readedData.getTimestamp(), msg.requestId);
+                getSender().tell(version, getContext().getParent());
+
+                getContext().system().scheduler().scheduleOnce(
+                        Duration.create(maxTimeout, TimeUnit.MILLISECONDS),
+                        getSelf(),
+                        new TimeoutSendVersion(msg.key),
+                        timers(), getSelf()
+                );
+
+                // logging
+                Logs.ask_version(msg.key, msg.requestId, Helper.getName(getSender()), nodeName);
+            } else {
+                // data is locked
+                Logs.error(ErrorType.LOCKED_KEY, msg.key, nodeName);
+            }
+        } else {
+            // data is not present
+            Logs.error(ErrorType.UNKNOWN_KEY, msg.key, nodeName);
+        }
+    }
+
+    /**
+     * UpdateData handler.
+     * Performs the update, if newer than the item, and removes the lock on the resource.
+     * An update delayed behind a newer one (e.g. a blind write or a sequenced one) is dropped.
+     * @param msg UpdateData message
+     * @see UpdateData
+     */
+    public void onUpdateData(UpdateData msg) {
+        Data elem = nodeData.putIfNewer(msg.key, new Data(msg.value, msg.version, msg.timestamp));
+        nodeData.removeBlock(msg.key);
+
+        // logging
+        Logs.update(msg.key, elem.getValue(), Helper.getName(getSender()), nodeName);
+    }
+
+    /**
+     * BlindUpdate handler.
+     * Keeps the update if newer than the item, without looking at the lock, and acknowledges it to the coordinator.
+     * The version of the item is not changed, the timestamp orders the blind updates.
+     * @param msg BlindUpdate message
+     * @see BlindUpdate
+     */
+    public void onBlindUpdate(BlindUpdate msg) {
+        if (nodeData.isPresent(msg.key)) {
+            Data oldData = nodeData.getData(msg.key);
+            Data elem = nodeData.putIfNewer(msg.key, new Data(msg.value, oldData.getVersion(), msg.timestamp));
+            AckUpdate ack = new AckUpdate(elem.getVersion(), elem.getTimestamp(), msg.requestId);
+            getSender().tell(ack, getContext().getParent());
+
+            // logging
+            Logs.update(msg.key, elem.getValue(), Helper.getName(getSender()), nodeName);
+        } else {
+            // data is not present
+            Logs.error(ErrorType.UNKNOWN_KEY, msg.key, nodeName);
+        }
+    }
+
+    /**
+     * SequenceUpdate handler.
+     * The node is the primary of the key: assigns the next version to the update, applies it without locking
+     * the item, acknowledges it to the coordinator and replicates it to the backups.
+     * The primary orders the updates, so the update is always applied: its timestamp is raised above the one
+     * of the item, since the clock of the coordinator can be behind the one that stamped the item.
+     * @param msg SequenceUpdate message
+     * @see SequenceUpdate
+     */
+    public void onSequenceUpdate(SequenceUpdate msg) {
+        if (nodeData.isPresent(msg.key)) {
+            Data oldData = nodeData.getData(msg.key);
+            long timestamp = Math.max(oldData.getTimestamp() + 1, msg.timestamp);
+            Data elem = nodeData.putUpdate(msg.key, new Data(msg.value, oldData.getVersion() + 1, timestamp));
+            AckUpdate ack = new AckUpdate(elem.getVersion(), elem.getTimestamp(), msg.requestId);
+            getSender().tell(ack, getContext().getParent());
+            for (ActorRef backup : msg.backups) {
+                ReplicateUpdate data = new ReplicateUpdate(msg.key, elem.getValue(), elem.getVersion(),
+                        elem.getTimestamp(), msg.requestId, msg.epoch, getSender());
+                backup.tell(data, getContext().getParent());
+            }
+
+            // logging
+            Logs.update(msg.key, elem.getValue(), Helper.getName(getSender()), nodeName);
+        } else {
+            // data is not present
+            Logs.error(ErrorType.UNKNOWN_KEY, msg.key, nodeName);
+        }
+    }
+
+    /**
+     * ReplicateUpdate handler.
+     * Keeps the update sequenced by the primary, if newer than the item, and acknowledges it to the coordinator.
+     * @param msg ReplicateUpdate message
+     * @see ReplicateUpdate
+     */
+    public void onReplicateUpdate(ReplicateUpdate msg) {
+        if (nodeData.isPresent(msg.key)) {
+            Data elem = nodeData.putIfNewer(msg.key, new Data(msg.value, msg.version, msg.timestamp));
+            AckUpdate ack = new AckUpdate(elem.getVersion(), elem.getTimestamp(), msg.requestId);
+            msg.coordinator.tell(ack, getContext().getParent());
+
+            // logging
+            Logs.update(msg.key, elem.getValue(), Helper.getName(getSender()), nodeName);
+        } else {
+            // data is not present
+            Logs.error(ErrorType.UNKNOWN_KEY, msg.key, nodeName);
+        }
+    }
+
+    /**
+     * ChainUpdate handler.
+     * Applies the update, with the next version if the node is the head of the chain,
+     * and passes it to the next replica. The tail acknowledges it to the coordinator.
+     * The head orders the updates, so it always applies them, with a timestamp raised above the one of the item;
+     * the other replicas keep the update only if newer than the item.
+     * @param msg ChainUpdate message
+     * @see ChainUpdate
+     */
+    public void onChainUpdate(ChainUpdate msg) {
+        if (nodeData.isPresent(msg.key)) {
+            Data elem;
+            if (msg.version == null) {
+                Data oldData = nodeData.getData(msg.key);
+                long timestamp = Math.max(oldData.getTimestamp() + 1, msg.timestamp);
+                elem = nodeData.putUpdate(msg.key, new Data(msg.value, oldData.getVersion() + 1, timestamp));
+            } else {
+                elem = nodeData.putIfNewer(msg.key, new Data(msg.value, msg.version, msg.timestamp));
+            }
+            List<ActorRef> next = msg.chain.subList(1, msg.chain.size());
+            if (next.isEmpty()) {
+                AckUpdate ack = new AckUpdate(elem.getVersion(), elem.getTimestamp(), msg.requestId);
+                msg.coordinator.tell(ack, getContext().getParent());
+            } else {
+                ChainUpdate data = new ChainUpdate(msg.key, elem.getValue(), elem.getVersion(), elem.getTimestamp(),
+                        msg.requestId, msg.epoch, next, msg.coordinator);
+                next.get(0).tell(data, getContext().getParent());
+            }
+
+            // logging
+            Logs.update(msg.key, elem.getValue(), Helper.getName(getSender()), nodeName);
+        } else {
+            // data is not present
+            Logs.error(ErrorType.UNKNOWN_KEY, msg.key, nodeName);
+        }
+    }
+
+    /**
+     * TimeoutSendVersion handler.
+     * Remove the lock from the key.
+     * @param msg TimeoutSendVersion message
+     * @see TimeoutSendVersion
+     */
+    public void onTimeoutSendVersion(TimeoutSendVersion msg) {
+        nodeData.removeBlock(msg.key);
+    }
+
+    /**
+     * StoreItems handler.
+     * Merges the items in the storage.
+     * @param msg StoreItems message
+     * @see StoreItems
+     */
+    public void onStoreItems(StoreItems msg) {
+        nodeData.add(msg.items);
+    }
+
+    /**
+     * DropRanges handler.
+     * Removes the items of the ranges.
+     * @param msg DropRanges message
+     * @see DropRanges
+     */
+    public void onDropRanges(DropRanges msg) {
+        for (KeyRange range : msg.ranges) {
+            nodeData.removeRange(range);
+        }
+    }
+
+    /**
+     * CollectItems handler.
+     * Sends back a copy of the items of the ranges that follow the cursor.
+     * @param msg CollectItems message
+     * @see CollectItems
+     */
+    public void onCollectItems(CollectItems msg) {
+        Predicate<Integer> inRanges = key -> msg.ranges.stream().anyMatch(range -> range.contains(key));
+        Map<Integer, Data> items = new HashMap<>();
+        nodeData.getDataAfter(msg.cursor, msg.limit, inRanges)
+                .forEach((key, itemData) -> items.put(key,
+                        new Data(itemData.getValue(), itemData.getVersion(), itemData.getTimestamp())));
+        getSender().tell(new CollectedItems(msg.gatherId, items), self());
+    }
+
+    /**
+     * CollectKeys handler.
+     * Sends back a copy of the requested items held by the partition.
+     * @param msg CollectKeys message
+     * @see CollectKeys
+     */
+    public void onCollectKeys(CollectKeys msg) {
+        Map<Integer, Data> items = new HashMap<>();
+        for (Integer key : msg.keys) {
+            Data itemData = nodeData.getData(key);
+            if (itemData != null) {
+                items.put(key, new Data(itemData.getValue(), itemData.getVersion(), itemData.getTimestamp()));
+            }
+        }
+        getSender().tell(new CollectedItems(msg.gatherId, items), self());
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(WriteData.class, this::onWriteData)
+                .match(ReadData.class, this::onReadData)
+                .match(AskVersion.class, this::onAskVersion)
+                .match(AskReadVersion.class, this::onAskReadVersion)
+                .match(UpdateData.class, this::onUpdateData)
+                .match(BlindUpdate.class, this::onBlindUpdate)
+                .match(SequenceUpdate.class, this::onSequenceUpdate)
+                .match(ReplicateUpdate.class, this::onReplicateUpdate)
+                .match(ChainUpdate.class, this::onChainUpdate)
+                .match(TimeoutSendVersion.class, this::onTimeoutSendVersion)
+                .match(StoreItems.class, this::onStoreItems)
+                .match(DropRanges.class, this::onDropRanges)
+                .match(CollectItems.class, this::onCollectItems)
+                .match(CollectKeys.class, this::onCollectKeys)
+                .build();
+    }
+}
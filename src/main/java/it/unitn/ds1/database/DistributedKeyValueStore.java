@@ -4,7 +4,9 @@ import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import it.unitn.ds1.actors.ClientNode;
+import it.unitn.ds1.actors.ClientProxy;
 import it.unitn.ds1.actors.ClientNode.*;
 import it.unitn.ds1.actors.DataNode;
 import it.unitn.ds1.actors.DataNode.InitializeDataGroup;
@@ -12,7 +14,15 @@ import it.unitn.ds1.actors.DataNode.AskToJoin;
 import it.unitn.ds1.actors.DataNode.AskToLeave;
 import it.unitn.ds1.actors.DataNode.AskCrash;
 import it.unitn.ds1.actors.DataNode.AskRecover;
+import it.unitn.ds1.actors.DataNode.SetRateLimits;
+import it.unitn.ds1.actors.DataNode.SetWriteMode;
+import it.unitn.ds1.actors.DataNode.WriteMode;
+import it.unitn.ds1.actors.DataNode.SetRebalanceLimits;
+import it.unitn.ds1.actors.DataNode.AskRebalanceStatus;
+import it.unitn.ds1.actors.DataNode.SetReadCache;
+import it.unitn.ds1.actors.DataNode.AskReadCacheStatus;
 import it.unitn.ds1.managers.GroupManager.DataNodeRef;
+import it.unitn.ds1.utils.Profile;
 
 /**
  * DistributedKeyValueStore
@@ -23,6 +33,8 @@ public class DistributedKeyValueStore {
     private final int W; // write quorum
     private final int R; // read quorum
     private final int T; // max timeout
+    private final int P; // partitions per data node
+    private final int C; // coordinators per data node
     private final ActorSystem actorSystem;
     private final List<DataNodeRef> dataNodes;
     private final List<ActorRef> clients;
@@ -41,6 +53,8 @@ public class DistributedKeyValueStore {
         this.W = W;
         this.R = R;
         this.T = T;
+        this.P = DataNode.DEFAULT_PARTITIONS;
+        this.C = DataNode.DEFAULT_COORDINATORS;
 
         if (W > N || R > N) {
             System.out.println("ERROR: W or R are greater than N");
@@ -58,7 +72,7 @@ public class DistributedKeyValueStore {
             System.exit(0);
         }
 
-        this.actorSystem = ActorSystem.create(systemName);
+        this.actorSystem = ActorSystem.create(systemName, Profile.load(Profile.LATENCY));
         this.dataNodes = new ArrayList<DataNodeRef>();
         this.clients = new ArrayList<ActorRef>();
 
@@ -91,6 +105,7 @@ public class DistributedKeyValueStore {
         this.clients.add(client2);
 
         connectDataNodes();
+        refreshClientRings();
     }
 
     /**
@@ -101,14 +116,20 @@ public class DistributedKeyValueStore {
      * @param W write quorum
      * @param R read quorum
      * @param T timeout
+     * @param P partitions per data node
+     * @param C coordinators per data node
      * @param dataNodeCount number of data nodes
      * @param clientCount number of clients
+     * @param profile the dispatchers profile, latency or throughput
      */
-    public DistributedKeyValueStore(String systemName, int N, int W, int R, int T, int dataNodeCount, int clientCount) {
+    public DistributedKeyValueStore(String systemName, int N, int W, int R, int T, int P, int C,
+                                    int dataNodeCount, int clientCount, String profile) {
         this.N = N;
         this.W = W;
         this.R = R;
         this.T = T;
+        this.P = P;
+        this.C = C;
 
         if (W > N || R > N) {
             System.out.println("ERROR: W or R are greater than N");
@@ -126,11 +147,17 @@ public class DistributedKeyValueStore {
             System.exit(0);
         }
 
-        this.actorSystem = ActorSystem.create(systemName);
+        if (P < 1 || C < 1) {
+            System.out.println("ERROR: P and C should be at least 1");
+            System.exit(0);
+        }
+
+        this.actorSystem = ActorSystem.create(systemName, Profile.load(profile));
         this.dataNodes = initDataNodes(dataNodeCount);
         this.clients = initClients(clientCount);
 
         connectDataNodes();
+        refreshClientRings();
     }
 
     /**
@@ -175,7 +202,7 @@ public class DistributedKeyValueStore {
      * @return the actor reference of the new data node
      */
     public ActorRef createDataNode(String name, int key) {
-        return actorSystem.actorOf(DataNode.props(W, R, N, T, key), name);
+        return actorSystem.actorOf(DataNode.props(W, R, N, T, key, P, C), name);
     }
 
     /**
@@ -185,7 +212,18 @@ public class DistributedKeyValueStore {
      * @return the actor reference of the new client
      */
     public ActorRef createClientNode(String name) {
-        return actorSystem.actorOf(ClientNode.props(), name);
+        return actorSystem.actorOf(ClientNode.props(R, T), name);
+    }
+
+    /**
+     * createClientProxy
+     * Create the actor that sends the requests of a KeyValueClient
+     * @param name the name of the new proxy
+     * @param pending the future replies of the client, by request identifier
+     * @return the actor reference of the new proxy
+     */
+    public ActorRef createClientProxy(String name, Map<String, CompletableFuture<Object>> pending) {
+        return actorSystem.actorOf(ClientProxy.props(pending), name);
     }
 
     /**
@@ -198,6 +236,16 @@ public class DistributedKeyValueStore {
         }
     }
 
+    /**
+     * refreshClientRings
+     * Tell the clients to fetch the ring, used to send the requests straight to the replicas of the keys
+     */
+    public void refreshClientRings() {
+        for (ActorRef client : this.clients) {
+            client.tell(new RefreshRing(getRandomDataNode()), ActorRef.noSender());
+        }
+    }
+
     /**
      * writeData
      * Write a new key-value pair in the distributed database, useful for testing and initializing the system
@@ -266,7 +314,7 @@ public class DistributedKeyValueStore {
      * sendWriteFromClient
      * Send a Write request to the database
      * @param client the client that sends the request
-     * @param coordinator the coordinator of the request
+     * @param coordinator the coordinator of the request, null to let the client send it to a replica of the key
      * @param key the key to write
      * @param value the value to write
      */
@@ -279,7 +327,7 @@ public class DistributedKeyValueStore {
      * sendReadFromClient
      * Send a Read request to the database
      * @param client the client that sends the request
-     * @param coordinator the coordinator of the request
+     * @param coordinator the coordinator of the request, null to let the client send it to a replica of the key
      * @param key the key to read
      */
     public void sendReadFromClient(ActorRef client, ActorRef coordinator, int key) {
@@ -291,7 +339,7 @@ public class DistributedKeyValueStore {
      * sendUpdateFromClient
      * Send an Update request to the database
      * @param client the client that sends the request
-     * @param coordinator the coordinator of the request
+     * @param coordinator the coordinator of the request, null to let the client send it to a replica of the key
      * @param key the key to update
      * @param newValue the new value to write
      */
@@ -342,6 +390,91 @@ public class DistributedKeyValueStore {
         crashedNode.tell(msg, ActorRef.noSender());
     }
 
+    /**
+     * setRebalanceLimits
+     * Change at runtime the traffic every data node can spend on rebalancing
+     * @param bytesRate the maximum bytes per second
+     * @param messagesRate the maximum messages per second
+     * @param targetLatency the client latency over which rebalancing slows down, in ms
+     */
+    public void setRebalanceLimits(long bytesRate, long messagesRate, long targetLatency) {
+        for (DataNodeRef dataNode : this.dataNodes) {
+            SetRebalanceLimits msg = new SetRebalanceLimits(bytesRate, messagesRate, targetLatency);
+            dataNode.getActorRef().tell(msg, ActorRef.noSender());
+        }
+    }
+
+    /**
+     * setDirectReads
+     * Change how the clients read: with direct reads the coordinator forwards the client to the replicas,
+     * that reply straight to it, and the client collects the read quorum
+     * @param directReads true for direct reads, false to read through the coordinator
+     */
+    public void setDirectReads(boolean directReads) {
+        for (ActorRef client : this.clients) {
+            client.tell(new SetReadMode(directReads), ActorRef.noSender());
+        }
+    }
+
+    /**
+     * setWriteMode
+     * Change how the coordinators perform the updates: with a version quorum that locks the item,
+     * with blind writes stamped by a hybrid logical clock that the replicas merge by last writer,
+     * or through the primary of the key, that sequences the versions and replicates them to the backups
+     * @param mode the write mode
+     */
+    public void setWriteMode(WriteMode mode) {
+        for (DataNodeRef dataNode : this.dataNodes) {
+            dataNode.getActorRef().tell(new SetWriteMode(mode), ActorRef.noSender());
+        }
+    }
+
+    /**
+     * setRateLimits
+     * Change at runtime the rate of client requests every data node accepts as coordinator
+     * @param clientRate the requests per second of every client, 0 to disable the limit
+     * @param clientBurst the requests a client can send at once
+     * @param globalRate the requests per second of all the clients, 0 to disable the limit
+     * @param globalBurst the requests all the clients can send at once
+     */
+    public void setRateLimits(double clientRate, double clientBurst, double globalRate, double globalBurst) {
+        for (DataNodeRef dataNode : this.dataNodes) {
+            SetRateLimits msg = new SetRateLimits(clientRate, clientBurst, globalRate, globalBurst);
+            dataNode.getActorRef().tell(msg, ActorRef.noSender());
+        }
+    }
+
+    /**
+     * setReadCache
+     * Change at runtime the number of items every coordinator keeps in its read cache
+     * @param capacity the items cached by every coordinator, 0 to disable the cache
+     */
+    public void setReadCache(int capacity) {
+        for (DataNodeRef dataNode : this.dataNodes) {
+            dataNode.getActorRef().tell(new SetReadCache(capacity), ActorRef.noSender());
+        }
+    }
+
+    /**
+     * readCacheStatus
+     * Tell the coordinators of a data node to print the hit ratio and the memory use of their read cache
+     * @param dataNode the data node
+     */
+    public void readCacheStatus(ActorRef dataNode) {
+        AskReadCacheStatus msg = new AskReadCacheStatus();
+        dataNode.tell(msg, ActorRef.noSender());
+    }
+
+    /**
+     * rebalanceStatus
+     * Tell a data node to print its rebalancing rate and backlog
+     * @param dataNode the data node
+     */
+    public void rebalanceStatus(ActorRef dataNode) {
+        AskRebalanceStatus msg = new AskRebalanceStatus();
+        dataNode.tell(msg, ActorRef.noSender());
+    }
+
     /**
      * statusMessage
      * Send a status request to the system
@@ -362,6 +495,15 @@ public class DistributedKeyValueStore {
         return this.dataNodes.get(i).getActorRef();
     }
 
+    /**
+     * getDataNodeCount
+     * Get the number of data nodes created with the store
+     * @return the number of data nodes
+     */
+    public int getDataNodeCount() {
+        return this.dataNodes.size();
+    }
+
     /**
      * getClient
      * get the client stored at index i
@@ -373,6 +515,14 @@ public class DistributedKeyValueStore {
     }
 
 
+    /**
+     * terminate
+     * Stop the actor system
+     */
+    public void terminate() {
+        this.actorSystem.terminate();
+    }
+
     /**
      * roundUp
      * round up integer division both parameters must be positive
@@ -0,0 +1,272 @@
+package it.unitn.ds1.database;
+
+import akka.actor.ActorRef;
+import akka.pattern.Patterns;
+import it.unitn.ds1.actors.ClientProxy.StopProxy;
+import it.unitn.ds1.actors.DataNode.*;
+import it.unitn.ds1.managers.RoutingManager;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+/**
+ * KeyValueClient
+ * A synchronous client of the distributed key-value store, usable from any number of application threads.
+ * Every call sends the request to a replica of the key, found in a cached copy of the ring (a random data node
+ * until the ring is known), and waits for the reply.
+ * All the requests are sent by one proxy actor, so the data nodes see one client (e.g. for the rate limits):
+ * the proxy completes the future of a request with its reply, so the calling thread only parks on it
+ * and many callers can be in flight at once.
+ * The async variants return the future, for callers that do not want to block a thread.
+ * Close the client to stop its proxy.
+ */
+public class KeyValueClient {
+    private static final AtomicLong nextClientId = new AtomicLong(0);
+    private static final int MAX_REDIRECTS = 3; // times a request is sent again after a stale ring
+
+    private final List<ActorRef> coordinators;
+    private final Duration timeout;
+    private final String clientId;
+    private final AtomicLong nextRequestId;
+    private final RoutingManager routingManager;
+    //                     requestId, future reply
+    private final Map<String, CompletableFuture<Object>> pending;
+    private final ActorRef proxy;
+
+    /**
+     * KeyValueClient
+     * @param database the store the client connects to
+     * @param timeout the maximum time a call waits for the reply
+     */
+    public KeyValueClient(DistributedKeyValueStore database, Duration timeout) {
+        List<ActorRef> coordinators = new ArrayList<>();
+        for (int i = 0; i < database.getDataNodeCount(); i++) {
+            coordinators.add(database.getDataNode(i));
+        }
+        this.coordinators = Collections.unmodifiableList(coordinators);
+        this.timeout = timeout;
+        this.clientId = "kv" + nextClientId.getAndIncrement();
+        this.nextRequestId = new AtomicLong(0);
+        this.routingManager = new RoutingManager();
+        this.pending = new ConcurrentHashMap<>();
+        this.proxy = database.createClientProxy(clientId, pending);
+        refreshRing();
+    }
+
+    /**
+     * Fetch the ring from a random data node, waiting at most the timeout.
+     * Without a ring, the requests go to random data nodes.
+     */
+    public void refreshRing() {
+        try {
+            Object reply = Patterns.ask(randomCoordinator(), new AskRing(), timeout)
+                    .toCompletableFuture().get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            if (reply instanceof SendRing ring) {
+                routingManager.updateRing(ring.group, ring.replicasCount, ring.epoch);
+            }
+        } catch (ExecutionException | TimeoutException e) {
+            // keep the current ring
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop the proxy of the client; the requests still waiting for a reply fail at their timeout.
+     */
+    public void close() {
+        proxy.tell(new StopProxy(), ActorRef.noSender());
+    }
+
+    /**
+     * RequestFailedException
+     * The exception thrown when the store does not complete a request.
+     */
+    public static class RequestFailedException extends RuntimeException {
+        public final Reason reason;
+        public final long retryAfter; // in ms, suggested by the rate limits
+
+        public RequestFailedException(Reason reason, long retryAfter, String message) {
+            super(message);
+            this.reason = reason;
+            this.retryAfter = retryAfter;
+        }
+    }
+
+    /**
+     * Reason
+     * Why a request failed.
+     */
+    public enum Reason {
+        QUORUM_TIMEOUT, // the coordinator did not reach the quorum
+        OVERLOADED, // the coordinator rejected the request, it is overloaded
+        RATE_LIMITED, // the coordinator rejected the request, the rate of the client is over the limit
+        STALE_RING, // the ring changed at every attempt
+        NO_REPLY // no reply before the timeout of the client
+    }
+
+    /**
+     * Read a key.
+     * @param key the key
+     * @return the value
+     * @throws RequestFailedException if the read did not complete
+     */
+    public String get(int key) {
+        return await(getAsync(key));
+    }
+
+    /**
+     * Read a key without blocking.
+     * @param key the key
+     * @return the future value
+     */
+    public CompletionStage<String> getAsync(int key) {
+        String requestId = newRequestId();
+        return ask(key, requestId, epoch -> new AskReadData(key, requestId, epoch), 0).thenApply(reply -> {
+            if (reply instanceof SendRead2Client read) {
+                return read.value;
+            }
+            throw failure(reply, requestId);
+        });
+    }
+
+    /**
+     * Update a key.
+     * @param key the key
+     * @param value the new value
+     * @return the new version of the key
+     * @throws RequestFailedException if the update did not complete
+     */
+    public int update(int key, String value) {
+        return await(updateAsync(key, value));
+    }
+
+    /**
+     * Update a key without blocking.
+     * @param key the key
+     * @param value the new value
+     * @return the future version of the key
+     */
+    public CompletionStage<Integer> updateAsync(int key, String value) {
+        String requestId = newRequestId();
+        return ask(key, requestId, epoch -> new AskUpdateData(key, value, requestId, epoch), 0).thenApply(reply -> {
+            if (reply instanceof ReturnUpdate update) {
+                return update.version;
+            }
+            throw failure(reply, requestId);
+        });
+    }
+
+    /**
+     * Write a new key.
+     * The write of a new key is not acknowledged by the store, so the call returns once the request is sent,
+     * without the ring epoch since a redirect could not reach the caller.
+     * It is sent by the proxy anyway, so that it counts in the rate of the client.
+     * @param key the key
+     * @param value the value
+     */
+    public void put(int key, String value) {
+        pickCoordinator(key).tell(new AskWriteData(key, value), proxy);
+    }
+
+    /**
+     * Send a request to a replica of the key.
+     * When the coordinator reports that the ring is stale, the ring is updated and the request sent again.
+     * The request is sent by the proxy, that completes the future registered with its identifier.
+     * @param key the key of the request
+     * @param requestId the request identifier
+     * @param request the request, built with the current ring epoch
+     * @param redirects the times the request has been sent again
+     * @return the future reply
+     */
+    private CompletionStage<Object> ask(Integer key, String requestId, IntFunction<Object> request, int redirects) {
+        ActorRef coordinator = pickCoordinator(key);
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        pending.put(requestId, future);
+        routingManager.requestSent(coordinator);
+        coordinator.tell(request.apply(routingManager.getEpoch()), proxy);
+        return future.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((reply, e) -> {
+                    pending.remove(requestId, future);
+                    routingManager.requestCompleted(coordinator);
+                })
+                .thenCompose(reply -> {
+                    if (reply instanceof StaleRing stale && redirects < MAX_REDIRECTS) {
+                        routingManager.updateRing(stale.ring.group, stale.ring.replicasCount, stale.ring.epoch);
+                        return ask(key, requestId, request, redirects + 1);
+                    }
+                    return CompletableFuture.completedFuture(reply);
+                });
+    }
+
+    /**
+     * Pick the coordinator of a request: a replica of the key, or a random data node if the ring is not known.
+     * @param key the key of the request
+     * @return the coordinator
+     */
+    private ActorRef pickCoordinator(Integer key) {
+        ActorRef coordinator = routingManager.pickCoordinator(key);
+        return coordinator != null ? coordinator : randomCoordinator();
+    }
+
+    private ActorRef randomCoordinator() {
+        return coordinators.get(ThreadLocalRandom.current().nextInt(coordinators.size()));
+    }
+
+    private String newRequestId() {
+        return clientId + "/" + nextRequestId.getAndIncrement();
+    }
+
+    /**
+     * Build the exception for a reply that is not a result.
+     * @param reply the reply of the coordinator
+     * @param requestId the request identifier
+     * @return the exception
+     */
+    private static RequestFailedException failure(Object reply, String requestId) {
+        if (reply instanceof Overloaded overloaded) {
+            return new RequestFailedException(Reason.OVERLOADED, overloaded.estimatedWait,
+                    "request " + requestId + " rejected, coordinator overloaded");
+        } else if (reply instanceof RateLimited limited) {
+            return new RequestFailedException(Reason.RATE_LIMITED, limited.retryAfter,
+                    "request " + requestId + " rejected, " + limited.scope + " rate limit");
+        } else if (reply instanceof StaleRing) {
+            return new RequestFailedException(Reason.STALE_RING, 0,
+                    "request " + requestId + " redirected " + MAX_REDIRECTS + " times");
+        }
+        return new RequestFailedException(Reason.QUORUM_TIMEOUT, 0, "request " + requestId + " timed out");
+    }
+
+    /**
+     * Wait for the result of a request.
+     * @param future the future result
+     * @return the result
+     * @throws RequestFailedException if the request failed or the timeout expired
+     */
+    private <T> T await(CompletionStage<T> future) {
+        try {
+            return future.toCompletableFuture().get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RequestFailedException failed) {
+                throw failed;
+            } else if (e.getCause() instanceof TimeoutException) {
+                throw new RequestFailedException(Reason.NO_REPLY, 0, "no reply in " + timeout.toMillis() + " ms");
+            }
+            throw new RequestFailedException(Reason.NO_REPLY, 0, e.getCause().getMessage());
+        } catch (TimeoutException e) {
+            throw new RequestFailedException(Reason.NO_REPLY, 0, "no reply in " + timeout.toMillis() + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestFailedException(Reason.NO_REPLY, 0, "interrupted");
+        }
+    }
+}
@@ -5,6 +5,10 @@ public enum ErrorType {
     UNKNOWN_KEY,
     EXISTING_KEY,
     CLIENT_BUSY,
+    CLIENT_BACKOFF,
+    NO_ROUTE,
+    STALE_PRIMARY,
+    NO_REPLICA,
     ;
 
     @Override
@@ -22,6 +26,18 @@ public enum ErrorType {
             case CLIENT_BUSY -> {
                 return "CLIENT_BUSY";
             }
+            case CLIENT_BACKOFF -> {
+                return "CLIENT_BACKOFF";
+            }
+            case NO_ROUTE -> {
+                return "NO_ROUTE";
+            }
+            case STALE_PRIMARY -> {
+                return "STALE_PRIMARY";
+            }
+            case NO_REPLICA -> {
+                return "NO_REPLICA";
+            }
             default -> {
                 return "";
             }
@@ -21,6 +21,14 @@ public class Logs {
     private final static String KEY_FORMAT = "key: %d";
     private final static String NODE_FORMAT = "node: %s";
     private final static String TIMEOUT_FORMAT = "request id: %s";
+    private final static String EPOCH_FORMAT = "epoch: %d";
+    private final static String COUNT_FORMAT = "items: %d";
+    private final static String THROUGHPUT_FORMAT = "items: %d, time: %d ms, throughput: %.1f keys/s";
+    private final static String REBALANCE_FORMAT = "rate: %.0f bytes/s, %.0f messages/s, backlog: %d messages, %d bytes, client latency: %.1f ms";
+    private final static String READ_CACHE_FORMAT = "hit ratio: %.2f, hits: %d, misses: %d, evictions: %d, items: %d/%d, memory: %d bytes";
+    private final static String OVERLOADED_FORMAT = "key: %d, request id: %s, estimated wait: %d ms";
+    private final static String RATE_LIMITED_FORMAT = "key: %d, request id: %s, limit: %s, retry after: %d ms";
+    private final static String REDIRECT_FORMAT = "key: %d, epoch: %d";
     private final static String STATUS = "key: %d, value: %s, version: %d";
     private final static String TEST = "Running test %d: %s\n";
 
@@ -314,6 +322,79 @@ public class Logs {
         }
     }
 
+    public static void epoch(int epoch, String sender, String receiver) {
+        String msg = String.format(EPOCH_FORMAT, epoch) +
+                String.format(FROM_NODE, NodeType.DATA_NODE, sender) +
+                String.format(TO_NODE, NodeType.DATA_NODE, receiver);
+        printLog(MessageType.EPOCH, msg);
+    }
+
+    public static void join_throughput(int items, long time, double throughput, String node) {
+        String msg = String.format(THROUGHPUT_FORMAT, items, time, throughput) +
+                String.format(IN_NODE, NodeType.DATA_NODE, node);
+        printLog(MessageType.JOIN_THROUGHPUT, msg);
+    }
+
+    public static void handoff(int count, String sender, String receiver) {
+        String msg = String.format(COUNT_FORMAT, count) +
+                String.format(FROM_NODE, NodeType.DATA_NODE, sender) +
+                String.format(TO_NODE, NodeType.DATA_NODE, receiver);
+        printLog(MessageType.HANDOFF, msg);
+    }
+
+    public static void leave_aborted(String node) {
+        String msg = String.format(IN_NODE, NodeType.DATA_NODE, node);
+        printLog(MessageType.LEAVE_ABORTED, msg);
+    }
+
+    public static void join_incomplete(String keys, String node) {
+        String msg = String.format(ITEMS_FORMAT, keys) + String.format(IN_NODE, NodeType.DATA_NODE, node);
+        printLog(MessageType.JOIN_INCOMPLETE, msg);
+    }
+
+    public static void rebalance(double bytesRate, double messagesRate, int backlog, long backlogBytes,
+                                 double latency, String node) {
+        String msg = String.format(REBALANCE_FORMAT, bytesRate, messagesRate, backlog, backlogBytes, latency) +
+                String.format(IN_NODE, NodeType.DATA_NODE, node);
+        printLog(MessageType.REBALANCE, msg);
+    }
+
+    public static void read_cache(double hitRatio, long hits, long misses, long evictions, int size, int capacity,
+                                  long bytes, String coordinator) {
+        String msg = String.format(READ_CACHE_FORMAT, hitRatio, hits, misses, evictions, size, capacity, bytes) +
+                String.format(IN_NODE, NodeType.COORDINATOR, coordinator);
+        printLog(MessageType.READ_CACHE, msg);
+    }
+
+    public static void overloaded(Integer key, String request_id, long estimatedWait, String sender, String receiver) {
+        String msg = String.format(OVERLOADED_FORMAT, key, request_id, estimatedWait) +
+                String.format(FROM_NODE, NodeType.DATA_NODE, sender) +
+                String.format(TO_NODE, NodeType.CLIENT, receiver);
+        printLog(MessageType.OVERLOADED, msg);
+    }
+
+    public static void rate_limited(Integer key, String request_id, String scope, long retryAfter, String sender,
+                                    String receiver) {
+        String msg = String.format(RATE_LIMITED_FORMAT, key, request_id, scope, retryAfter) +
+                String.format(FROM_NODE, NodeType.DATA_NODE, sender) +
+                String.format(TO_NODE, NodeType.CLIENT, receiver);
+        printLog(MessageType.RATE_LIMITED, msg);
+    }
+
+    public static void redirect(int key, int epoch, String staleCoordinator, String coordinator) {
+        String msg = String.format(REDIRECT_FORMAT, key, epoch) +
+                String.format(FROM_NODE, NodeType.COORDINATOR, staleCoordinator) +
+                String.format(TO_NODE, NodeType.COORDINATOR, coordinator);
+        printLog(MessageType.REDIRECT, msg);
+    }
+
+    public static void hints(int count, String sender, String receiver) {
+        String msg = String.format(COUNT_FORMAT, count) +
+                String.format(FROM_NODE, NodeType.COORDINATOR, sender) +
+                String.format(TO_NODE, NodeType.DATA_NODE, receiver);
+        printLog(MessageType.HINTS, msg);
+    }
+
     public static void error(ErrorType type, int key, String sender) {
         final String msg = String.format(KEY_FORMAT, key) +
                 String.format(IN_NODE, NodeType.DATA_NODE, sender);
@@ -323,6 +404,10 @@ public class Logs {
             case UNKNOWN_KEY -> printLog(MessageType.UNKNOWN_KEY_ERROR, msg);
             case EXISTING_KEY -> printLog(MessageType.EXISTING_KEY_ERROR, msg);
             case CLIENT_BUSY -> printLog(MessageType.CLIENT_BUSY_ERROR, msg);
+            case CLIENT_BACKOFF -> printLog(MessageType.CLIENT_BACKOFF_ERROR, msg);
+            case NO_ROUTE -> printLog(MessageType.NO_ROUTE_ERROR, msg);
+            case STALE_PRIMARY -> printLog(MessageType.STALE_PRIMARY_ERROR, msg);
+            case NO_REPLICA -> printLog(MessageType.NO_REPLICA_ERROR, msg);
             default -> {}
         }
     }
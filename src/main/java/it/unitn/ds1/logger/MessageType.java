@@ -32,10 +32,25 @@ public enum MessageType {
     READ_TIMEOUT,
     WRITE_TIMEOUT,
     STATUS,
+    EPOCH,
+    HINTS,
+    JOIN_THROUGHPUT,
+    HANDOFF,
+    LEAVE_ABORTED,
+    JOIN_INCOMPLETE,
+    REBALANCE,
+    READ_CACHE,
+    OVERLOADED,
+    RATE_LIMITED,
+    REDIRECT,
     UNKNOWN_KEY_ERROR,
     EXISTING_KEY_ERROR,
     LOCKED_KEY_ERROR,
-    CLIENT_BUSY_ERROR
+    CLIENT_BUSY_ERROR,
+    CLIENT_BACKOFF_ERROR,
+    NO_ROUTE_ERROR,
+    STALE_PRIMARY_ERROR,
+    NO_REPLICA_ERROR
     ;
 
     @Override
@@ -134,6 +149,39 @@ public enum MessageType {
             case STATUS -> {
                 return "STATUS";
             }
+            case EPOCH -> {
+                return "EPOCH";
+            }
+            case HINTS -> {
+                return "HINTS";
+            }
+            case JOIN_THROUGHPUT -> {
+                return "JOIN_THROUGHPUT";
+            }
+            case HANDOFF -> {
+                return "HANDOFF";
+            }
+            case LEAVE_ABORTED -> {
+                return "LEAVE_ABORTED";
+            }
+            case JOIN_INCOMPLETE -> {
+                return "JOIN_INCOMPLETE";
+            }
+            case REBALANCE -> {
+                return "REBALANCE";
+            }
+            case READ_CACHE -> {
+                return "READ_CACHE";
+            }
+            case OVERLOADED -> {
+                return "OVERLOADED";
+            }
+            case RATE_LIMITED -> {
+                return "RATE_LIMITED";
+            }
+            case REDIRECT -> {
+                return "REDIRECT";
+            }
             case UNKNOWN_KEY_ERROR -> {
                 return "UNKNOWN_KEY_ERROR";
             }
@@ -146,6 +194,18 @@ public enum MessageType {
             case CLIENT_BUSY_ERROR -> {
                 return "CLIENT_BUSY_ERROR";
             }
+            case CLIENT_BACKOFF_ERROR -> {
+                return "CLIENT_BACKOFF_ERROR";
+            }
+            case NO_ROUTE_ERROR -> {
+                return "NO_ROUTE_ERROR";
+            }
+            case STALE_PRIMARY_ERROR -> {
+                return "STALE_PRIMARY_ERROR";
+            }
+            case NO_REPLICA_ERROR -> {
+                return "NO_REPLICA_ERROR";
+            }
             default -> {
                 return "";
             }
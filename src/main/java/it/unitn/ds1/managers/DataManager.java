@@ -1,6 +1,9 @@
 package it.unitn.ds1.managers;
 
 import java.util.*;
+import java.util.function.Predicate;
+
+import it.unitn.ds1.managers.GroupManager.KeyRange;
 
 /**
  * DataManager
@@ -8,31 +11,37 @@ import java.util.*;
  * Instantiated by every node.
  */
 public class DataManager {
-    private final Map<Integer, Data> storage; // key - (value - version)
+    private final NavigableMap<Integer, Data> storage; // key - (value - version), sorted by key
     private final Map<Integer, Boolean> blocks;
 
     public DataManager() {
-        this.storage = new HashMap<>();
+        this.storage = new TreeMap<>();
         this.blocks  = new HashMap<>();
     }
 
     /**
      * Data
      * A class that represent a data item.
-     * It contains the value and the version of the data item.
+     * It contains the value, the version and the timestamp of the data item.
+     * The timestamp is the hybrid logical clock of the coordinator that wrote the item, 0 if never updated.
      */
     static public class Data {
         private String value;
         private Integer version;
+        private long timestamp;
 
         public Data(String value) {
-            this.value = value;
-            this.version = 1;
+            this(value, 1);
         }
 
         public Data(String value, Integer version) {
+            this(value, version, 0);
+        }
+
+        public Data(String value, Integer version, long timestamp) {
             this.value = value;
             this.version = version;
+            this.timestamp = timestamp;
         }
 
         /**
@@ -51,6 +60,14 @@ public class DataManager {
             return this.version;
         }
 
+        /**
+         * Get the timestamp of the data item.
+         * @return timestamp
+         */
+        public long getTimestamp() {
+            return this.timestamp;
+        }
+
         /**
          * Update the value of the data item.
          * @param newValue the new value of the data item
@@ -60,13 +77,68 @@ public class DataManager {
             version += 1;
         }
 
+        /**
+         * Get the version and the timestamp of the data item.
+         * @return the stamp of the data item
+         */
+        public Stamp getStamp() {
+            return new Stamp(this.version, this.timestamp);
+        }
+
         /**
          * Check if the data item is newer than the given data item.
+         * The last writer wins: the timestamp decides, then the version, then the value,
+         * so that all the replicas pick the same item whatever the order they receive them.
          * @param data the given data item
          * @return true if the data item is newer, false otherwise
          */
         public Boolean isNewer(Data data) {
-            return this.version > data.getVersion();
+            if (this.timestamp != data.getTimestamp()) {
+                return this.timestamp > data.getTimestamp();
+            }
+            if (!this.version.equals(data.getVersion())) {
+                return this.version > data.getVersion();
+            }
+            return this.value.compareTo(data.getValue()) > 0;
+        }
+    }
+
+    /**
+     * Stamp
+     * A class that represents the version and the timestamp of a data item without its value,
+     * used to compare the items held by different nodes.
+     * A blind write keeps the version and moves the timestamp, so the version alone does not tell the newer item.
+     */
+    static public class Stamp {
+        public static final int SIZE = Integer.BYTES + Long.BYTES; // in bytes
+
+        private final Integer version;
+        private final long timestamp;
+
+        public Stamp(Integer version, long timestamp) {
+            this.version = version;
+            this.timestamp = timestamp;
+        }
+
+        public Integer getVersion() {
+            return version;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Check if the stamp is newer than the given one, in the same order as the data items:
+         * the timestamp decides, then the version.
+         * @param stamp the given stamp
+         * @return true if the stamp is newer, false otherwise
+         */
+        public Boolean isNewer(Stamp stamp) {
+            if (this.timestamp != stamp.getTimestamp()) {
+                return this.timestamp > stamp.getTimestamp();
+            }
+            return this.version > stamp.getVersion();
         }
     }
 
@@ -111,12 +183,39 @@ public class DataManager {
      * @param key the key of the data item
      * @param value the value of the data item
      * @param version the version of the data item
+     * @param timestamp the timestamp of the data item
      */
-    public void putUpdateAndRemoveBlock(Integer key, String value, Integer version) {
-        storage.put(key, new Data(value, version));
+    public void putUpdateAndRemoveBlock(Integer key, String value, Integer version, long timestamp) {
+        storage.put(key, new Data(value, version, timestamp));
         blocks.put(key, false);
     }
 
+    /**
+     * Put an updated data item into the storage, replacing the stored one.
+     * The lock on the item is left as it is.
+     * @param key the key of the data item
+     * @param itemData the data item
+     * @return the stored data item
+     */
+    public Data putUpdate(Integer key, Data itemData) {
+        storage.put(key, itemData);
+        return itemData;
+    }
+
+    /**
+     * Put a data item into the storage, only if it is newer than the stored one.
+     * The lock on the item is left as it is.
+     * @param key the key of the data item
+     * @param itemData the data item
+     * @return the stored data item
+     */
+    public Data putIfNewer(Integer key, Data itemData) {
+        return storage.merge(key, itemData,
+                (oldValue, newValue) -> newValue.isNewer(oldValue)
+                        ? newValue
+                        : oldValue);
+    }
+
     /**
      * Put a set of new data item into the storage.
      * @param newData the set of new data item
@@ -184,6 +283,68 @@ public class DataManager {
         blocks.remove(key);
     }
 
+    /**
+     * Get the data items that follow the given key, in key order.
+     * @param cursor the last key already read, excluded, null to start from the first key
+     * @param limit the maximum number of data items
+     * @param filter the condition the keys must satisfy
+     * @return the data items sorted by key
+     */
+    public SortedMap<Integer, Data> getDataAfter(Integer cursor, int limit, Predicate<Integer> filter) {
+        SortedMap<Integer, Data> result = new TreeMap<>();
+        SortedMap<Integer, Data> tail = cursor == null ? storage : storage.tailMap(cursor, false);
+        for (Map.Entry<Integer, Data> entry : tail.entrySet()) {
+            if (result.size() >= limit) {
+                break;
+            }
+            if (filter.test(entry.getKey())) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get a view of the data items in a range of keys.
+     * @param range the range of keys
+     * @return the data items in the range, sorted by key
+     */
+    public SortedMap<Integer, Data> getDataInRange(KeyRange range) {
+        if (range.getFrom() >= range.getTo()) {
+            return new TreeMap<>();
+        }
+        if (range.getFrom() < Integer.MIN_VALUE) {
+            return storage.headMap((int) range.getTo(), true);
+        }
+        return storage.subMap((int) range.getFrom(), false, (int) range.getTo(), true);
+    }
+
+    /**
+     * Remove the data items in a range of keys from the storage.
+     * @param range the range of keys
+     */
+    public void removeRange(KeyRange range) {
+        SortedMap<Integer, Data> items = getDataInRange(range);
+        for (Integer key : items.keySet()) {
+            blocks.remove(key);
+        }
+        items.clear();
+    }
+
+    /**
+     * Estimate the size of a set of data items when sent to another node.
+     * The key and the version take 4 bytes each, the timestamp 8 bytes, the value 2 bytes per character.
+     * @param items the data items
+     * @return the size in bytes
+     */
+    public static int estimateSize(Map<Integer, Data> items) {
+        int size = 0;
+        for (Data itemData : items.values()) {
+            size += 2 * Integer.BYTES + Long.BYTES + 2 * itemData.getValue().length();
+        }
+        return size;
+    }
+
     /**
      * Get all data items in the storage (i.e., the storage).
      * @return the storage
@@ -14,12 +14,30 @@ import java.util.stream.Collectors;
  * It is used by the join manager to find the neighbors.
  */
 public class GroupManager {
+    private static final double PHI_THRESHOLD = 8.0; // suspicion level above which a node is considered down
+    private static final long SUSPECT_TTL = 2000; // in ms, validity of a suspicion reported by another node
+    private static final long TOMBSTONE_TTL = 60000; // in ms, time the leave of a node is kept after learning it
+
     private final List<DataNodeRef> group; // must be always sorted
     public final int replicasCount;
+    // the last change of every node, so concurrent changes commute: the members that joined after the initial group
+    // and the nodes that left, until their tombstone is collected
+    private final Map<ActorRef, MembershipDelta> changes;
+    private final Map<ActorRef, Long> tombstones; // departed node - time the leave was first seen by the collector
+    private int epoch; // highest epoch of the known changes, never decreases
+    private final Map<ActorRef, Integer> rangeFloors; // first replica of a range - epoch of the collected leaves in it
+    private final Map<ActorRef, HeartbeatHistory> heartbeats; // monitored neighbors
+    private final Map<ActorRef, Long> reportedSuspects; // node - expiration time of the suspicion
 
     public GroupManager(int replicasCount) {
         this.group = new ArrayList<>();
         this.replicasCount = replicasCount;
+        this.changes = new HashMap<>();
+        this.tombstones = new HashMap<>();
+        this.epoch = 0;
+        this.rangeFloors = new HashMap<>();
+        this.heartbeats = new HashMap<>();
+        this.reportedSuspects = new HashMap<>();
     }
 
     /**
@@ -52,6 +70,191 @@ public class GroupManager {
         }
     }
 
+    /**
+     * MembershipDelta
+     * This class represents a single change of the group, i.e. a node that joins or leaves.
+     * A node that leaves and joins again gets a new incarnation, so a delta is identified by its node,
+     * its incarnation and its type: the join of an incarnation comes before its leave.
+     * The epoch orders the changes of different nodes: it is one more than the epoch known by the node that made it.
+     */
+    static public class MembershipDelta {
+        private final DeltaType type;
+        private final DataNodeRef node;
+        private final int incarnation;
+        private final int epoch;
+
+        public MembershipDelta(DeltaType type, DataNodeRef node, int incarnation, int epoch) {
+            this.type = type;
+            this.node = node;
+            this.incarnation = incarnation;
+            this.epoch = epoch;
+        }
+
+        /**
+         * Get the type of the delta.
+         * @return the type of the delta.
+         */
+        public DeltaType getType() {
+            return type;
+        }
+
+        /**
+         * Get the data node that joined or left.
+         * @return the data node of the delta.
+         */
+        public DataNodeRef getNode() {
+            return node;
+        }
+
+        /**
+         * Get the incarnation of the node, increased every time it joins again.
+         * @return the incarnation.
+         */
+        public int getIncarnation() {
+            return incarnation;
+        }
+
+        /**
+         * Get the epoch of the change.
+         * @return the epoch.
+         */
+        public int getEpoch() {
+            return epoch;
+        }
+
+        /**
+         * Get the version of the node after the change, that grows with every change of the node:
+         * even while it is a member, odd once it left.
+         * @return the version.
+         */
+        public int getVersion() {
+            return 2 * incarnation + (type == DeltaType.LEAVE ? 1 : 0);
+        }
+    }
+
+    /**
+     * KeyRange
+     * This class represents a range of data keys on the ring, with the lower bound excluded and the upper one included.
+     * The bounds are longs so that the range starting from the smallest integer key can be represented.
+     */
+    static public class KeyRange {
+        public static final long MIN_BOUND = Integer.MIN_VALUE - 1L;
+        public static final long MAX_BOUND = Integer.MAX_VALUE;
+
+        private final long from;
+        private final long to;
+
+        public KeyRange(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * Get the lower bound of the range, excluded.
+         * @return the lower bound.
+         */
+        public long getFrom() {
+            return from;
+        }
+
+        /**
+         * Get the upper bound of the range, included.
+         * @return the upper bound.
+         */
+        public long getTo() {
+            return to;
+        }
+
+        /**
+         * Get the range that covers every key.
+         * @return the whole key space.
+         */
+        public static KeyRange all() {
+            return new KeyRange(MIN_BOUND, MAX_BOUND);
+        }
+
+        /**
+         * Check if a key is in the range.
+         * @param key the key of the data.
+         * @return true if the key is in the range, false otherwise.
+         */
+        public Boolean contains(Integer key) {
+            return key > from && key <= to;
+        }
+    }
+
+    /**
+     * Enum used to distinguish the membership changes
+     */
+    public enum DeltaType {
+        JOIN,
+        LEAVE
+    }
+
+    /**
+     * HeartbeatHistory
+     * This class stores the inter-arrival times of the heartbeats of a monitored node
+     * and computes the phi-accrual suspicion level.
+     */
+    static public class HeartbeatHistory {
+        private static final int WINDOW_SIZE = 100;
+        private static final double MIN_STD_DEVIATION = 100; // in ms
+
+        private final Deque<Long> intervals;
+        private long lastArrival;
+        private double intervalSum;
+        private double squaredIntervalSum;
+
+        public HeartbeatHistory(long now, long expectedInterval) {
+            this.intervals = new ArrayDeque<>();
+            this.lastArrival = now;
+            addInterval(expectedInterval);
+        }
+
+        /**
+         * Add an inter-arrival time to the window.
+         * @param interval the inter-arrival time in ms.
+         */
+        private void addInterval(long interval) {
+            intervals.addLast(interval);
+            intervalSum += interval;
+            squaredIntervalSum += (double) interval * interval;
+            if (intervals.size() > WINDOW_SIZE) {
+                long dropped = intervals.removeFirst();
+                intervalSum -= dropped;
+                squaredIntervalSum -= (double) dropped * dropped;
+            }
+        }
+
+        /**
+         * Record the arrival of a heartbeat.
+         * @param now the arrival time in ms.
+         */
+        public void heartbeat(long now) {
+            addInterval(now - lastArrival);
+            lastArrival = now;
+        }
+
+        /**
+         * Compute the suspicion level of the node.
+         * It uses the logistic approximation of the normal cumulative distribution.
+         * @param now the current time in ms.
+         * @return the phi value.
+         */
+        public double phi(long now) {
+            double mean = intervalSum / intervals.size();
+            double variance = squaredIntervalSum / intervals.size() - mean * mean;
+            double stdDeviation = Math.max(Math.sqrt(Math.max(variance, 0)), MIN_STD_DEVIATION);
+
+            double y = (now - lastArrival - mean) / stdDeviation;
+            double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+            if (now - lastArrival > mean) {
+                return -Math.log10(e / (1.0 + e));
+            }
+            return -Math.log10(1.0 - 1.0 / (1.0 + e));
+        }
+    }
+
     /**
      * Get the index of the next data node.
      * @param i the index of the current data node.
@@ -106,6 +309,127 @@ public class GroupManager {
         return dataNodes;
     }
 
+    /**
+     * Check if a data node is responsible for a given key, without building the list of replicas.
+     * @param dataKey the key of the data.
+     * @param nodeRef the reference to the data node.
+     * @return true if the node is one of the replicas of the key, false otherwise.
+     */
+    public Boolean isResponsible(Integer dataKey, ActorRef nodeRef) {
+        int i = getIndex(dataKey);
+        for (int j = 0; j < replicasCount; j++) {
+            if (this.group.get(i).getActorRef() == nodeRef) {
+                return true;
+            }
+            i = nextIndex(i);
+        }
+        return false;
+    }
+
+    /**
+     * Get the ranges of keys a data node is responsible for.
+     * The node is a replica of its own range and of the ranges of its predecessors.
+     * @param nodeRef the reference to the data node.
+     * @return the list of ranges, empty if the node is not in the group.
+     */
+    public List<KeyRange> getOwnedRanges(ActorRef nodeRef) {
+        int idx = -1;
+        for (int i = 0; i < group.size(); i++) {
+            if (group.get(i).getActorRef() == nodeRef) {
+                idx = i;
+            }
+        }
+        if (idx < 0) {
+            return new ArrayList<>();
+        }
+        return computeRanges(group, idx, replicasCount);
+    }
+
+    /**
+     * Get the ranges of keys a new data node will be responsible for, once added to the group.
+     * @param newNodeKey the key of the new data node.
+     * @return the list of ranges.
+     */
+    public List<KeyRange> getJoiningRanges(Integer newNodeKey) {
+        List<DataNodeRef> ring = new ArrayList<>(group);
+        ring.add(new DataNodeRef(newNodeKey, null));
+        ring.sort(Comparator.comparing(DataNodeRef::getNodeKey));
+        int idx = 0;
+        while (!ring.get(idx).getNodeKey().equals(newNodeKey)) {
+            idx++;
+        }
+        return computeRanges(ring, idx, replicasCount);
+    }
+
+    /**
+     * Compute the ranges of keys the node at a given position of a ring is responsible for.
+     * @param ring the data nodes sorted by key.
+     * @param idx the position of the node.
+     * @param replicasCount the number of replicas of every key.
+     * @return the list of ranges.
+     */
+    private static List<KeyRange> computeRanges(List<DataNodeRef> ring, int idx, int replicasCount) {
+        List<KeyRange> ranges = new ArrayList<>();
+        if (ring.size() <= replicasCount) {
+            ranges.add(KeyRange.all());
+            return ranges;
+        }
+        int i = idx;
+        for (int j = 0; j < replicasCount; j++) {
+            // the range of a node goes from the key of its predecessor (excluded) to its own key
+            long to = ring.get(i).getNodeKey();
+            if (i == 0) {
+                ranges.add(new KeyRange(KeyRange.MIN_BOUND, to));
+                ranges.add(new KeyRange(ring.get(ring.size() - 1).getNodeKey(), KeyRange.MAX_BOUND));
+            } else {
+                ranges.add(new KeyRange(ring.get(i - 1).getNodeKey(), to));
+            }
+            i = i == 0 ? ring.size() - 1 : i - 1;
+        }
+        return ranges;
+    }
+
+    /**
+     * Compute the keys that are in the first list of ranges but not in the second one.
+     * @param ranges the ranges to subtract from.
+     * @param toRemove the ranges to subtract.
+     * @return the list of remaining ranges.
+     */
+    public static List<KeyRange> subtractRanges(List<KeyRange> ranges, List<KeyRange> toRemove) {
+        List<KeyRange> result = new ArrayList<>(ranges);
+        for (KeyRange removed : toRemove) {
+            List<KeyRange> remaining = new ArrayList<>();
+            for (KeyRange range : result) {
+                if (removed.getTo() <= range.getFrom() || removed.getFrom() >= range.getTo()) {
+                    remaining.add(range); // no overlap
+                    continue;
+                }
+                if (range.getFrom() < removed.getFrom()) {
+                    remaining.add(new KeyRange(range.getFrom(), removed.getFrom()));
+                }
+                if (removed.getTo() < range.getTo()) {
+                    remaining.add(new KeyRange(removed.getTo(), range.getTo()));
+                }
+            }
+            result = remaining;
+        }
+        return result;
+    }
+
+    /**
+     * Find the data node that becomes responsible for a given key when one of its replicas leaves,
+     * i.e. the first node after the replicas of the key.
+     * @param dataKey the key of the data.
+     * @return the reference to the new replica, null if every node is already a replica.
+     */
+    public ActorRef findNextReplica(Integer dataKey) {
+        if (group.size() <= replicasCount) {
+            return null;
+        }
+        int i = (getIndex(dataKey) + replicasCount) % group.size();
+        return this.group.get(i).getActorRef();
+    }
+
     /**
      * Find the neighbors of a given data node.
      * @param dataKey the key of the data node.
@@ -132,7 +456,20 @@ public class GroupManager {
      * @param nodeRef the reference to the data node to remove.
      */
     public void removeNode(ActorRef nodeRef) {
+        // the range of the node is merged into the one of its successor
+        Integer floor = rangeFloors.remove(nodeRef);
+        if (floor != null && group.size() > 1) {
+            int i = 0;
+            while (i < group.size() && group.get(i).getActorRef() != nodeRef) {
+                i++;
+            }
+            if (i < group.size()) {
+                rangeFloors.merge(group.get(nextIndex(i)).getActorRef(), floor, Math::max);
+            }
+        }
         group.removeIf(dataNode -> dataNode.getActorRef() == nodeRef);
+        heartbeats.remove(nodeRef);
+        reportedSuspects.remove(nodeRef);
     }
 
     /**
@@ -144,6 +481,386 @@ public class GroupManager {
         addNode(newGroup);
     }
 
+    /**
+     * Replace the current group with the snapshot of another node.
+     * The last change of the node itself is kept if newer, so that a node that left and joins again
+     * gets a new incarnation even if the snapshot does not know its leave anymore.
+     * The failure detection state is dropped since it refers to the old group.
+     * @param snapshot the last change of every member and of the nodes recently left.
+     * @param floors the epochs of the collected leaves of the ranges, by first replica.
+     * @param self the reference to the node itself.
+     */
+    public void addNewGroup(List<MembershipDelta> snapshot, Map<ActorRef, Integer> floors, ActorRef self) {
+        MembershipDelta own = changes.get(self);
+        group.clear();
+        changes.clear();
+        tombstones.clear();
+        rangeFloors.clear();
+        rangeFloors.putAll(floors);
+        heartbeats.clear();
+        reportedSuspects.clear();
+        mergeChanges(snapshot);
+        if (own != null) {
+            applyDelta(own);
+        }
+    }
+
+    /**
+     * Apply the changes received from another node, in any order.
+     * @param deltas the membership deltas.
+     * @return true if the group learned some change, false otherwise.
+     */
+    public Boolean mergeChanges(List<MembershipDelta> deltas) {
+        boolean changed = false;
+        for (MembershipDelta delta : deltas) {
+            changed |= applyDelta(delta);
+        }
+        return changed;
+    }
+
+    /* ------- membership epochs ------- */
+
+    /**
+     * Get the current ring epoch, i.e. the highest epoch of the membership changes known.
+     * @return the epoch.
+     */
+    public int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Get the epoch of the range of a key, i.e. of the last change that touched its preference list:
+     * the join of one of its replicas, or the leave of a node between the predecessor of the first replica
+     * and the last one. Unlike the ring epoch, it does not move with the changes in the rest of the ring,
+     * so it fences the primaries and the chains of a key without rejecting the updates of unrelated changes.
+     * @param dataKey the key of the data.
+     * @return the epoch of the range.
+     */
+    public int getRangeEpoch(Integer dataKey) {
+        if (group.isEmpty()) {
+            return epoch;
+        }
+        int i = getIndex(dataKey);
+        int rangeEpoch = rangeFloors.getOrDefault(group.get(i).getActorRef(), 0);
+        for (ActorRef nodeRef : findDataNodes(dataKey)) {
+            MembershipDelta change = changes.get(nodeRef);
+            if (change != null) {
+                rangeEpoch = Math.max(rangeEpoch, change.getEpoch());
+            }
+        }
+        for (ActorRef nodeRef : tombstones.keySet()) {
+            MembershipDelta leave = changes.get(nodeRef);
+            if (isInSpan(i, leave.getNode().getNodeKey())) {
+                rangeEpoch = Math.max(rangeEpoch, leave.getEpoch());
+            }
+        }
+        return rangeEpoch;
+    }
+
+    /**
+     * Get the epochs of the collected leaves of the ranges, to send them with the snapshot of the group.
+     * @return the epoch of every range, by first replica.
+     */
+    public Map<ActorRef, Integer> getRangeFloors() {
+        return new HashMap<>(rangeFloors);
+    }
+
+    /**
+     * Check if a node key is in the span of the preference list of a range,
+     * from the predecessor of its first replica (excluded) to its last replica (included).
+     * @param first the index of the first replica of the range.
+     * @param nodeKey the node key.
+     * @return true if the key is in the span, false otherwise.
+     */
+    private boolean isInSpan(int first, Integer nodeKey) {
+        if (group.size() <= replicasCount) {
+            return true;
+        }
+        int from = group.get(previousIndex(first)).getNodeKey();
+        int to = group.get((first + replicasCount - 1) % group.size()).getNodeKey();
+        return from < to ? nodeKey > from && nodeKey <= to : nodeKey > from || nodeKey <= to;
+    }
+
+    /**
+     * Get a digest of the members with their versions, to find the nodes that know a different group.
+     * It does not depend on the tombstones, that are collected at different times by different nodes.
+     * @return the digest.
+     */
+    public int getMembershipDigest() {
+        int digest = 0;
+        for (DataNodeRef node : group) {
+            digest += 31 * node.getActorRef().hashCode() + getVersion(node.getActorRef());
+        }
+        return digest;
+    }
+
+    /**
+     * Get the version of a node, as known by this node.
+     * The nodes of the initial group have version 0 until they change.
+     * @param nodeRef the reference to the node.
+     * @return the version, -1 if the node is not known.
+     */
+    public int getVersion(ActorRef nodeRef) {
+        MembershipDelta change = changes.get(nodeRef);
+        if (change != null) {
+            return change.getVersion();
+        }
+        return isMember(nodeRef) ? 0 : -1;
+    }
+
+    /**
+     * Get the version of every known node: the members and the nodes recently left.
+     * @return the version of every node.
+     */
+    public Map<ActorRef, Integer> getVersions() {
+        Map<ActorRef, Integer> versions = new HashMap<>();
+        for (DataNodeRef node : group) {
+            versions.put(node.getActorRef(), getVersion(node.getActorRef()));
+        }
+        for (ActorRef nodeRef : tombstones.keySet()) {
+            versions.put(nodeRef, getVersion(nodeRef));
+        }
+        return versions;
+    }
+
+    /**
+     * Get the last change of every member, the nodes of the initial group included, and of the nodes recently left.
+     * @return the snapshot of the group.
+     */
+    public List<MembershipDelta> getSnapshot() {
+        List<MembershipDelta> snapshot = new ArrayList<>();
+        for (DataNodeRef node : group) {
+            snapshot.add(changes.getOrDefault(node.getActorRef(), new MembershipDelta(DeltaType.JOIN, node, 0, 0)));
+        }
+        for (ActorRef nodeRef : tombstones.keySet()) {
+            snapshot.add(changes.get(nodeRef));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Get the changes that another node misses, given the versions it knows.
+     * The leave of a node the other one does not know is not sent, as it does not change its group.
+     * @param versions the version of every node known by the other node.
+     * @return the missing deltas, at most one per node.
+     */
+    public List<MembershipDelta> getMissingChanges(Map<ActorRef, Integer> versions) {
+        List<MembershipDelta> missing = new ArrayList<>();
+        for (MembershipDelta change : getSnapshot()) {
+            Integer version = versions.get(change.getNode().getActorRef());
+            if (version == null ? change.getType() == DeltaType.JOIN : change.getVersion() > version) {
+                missing.add(change);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Check if another node knows some change of a member that this node misses.
+     * @param versions the version of every node known by the other node.
+     * @return true if this node is behind, false otherwise.
+     */
+    public Boolean isBehind(Map<ActorRef, Integer> versions) {
+        for (Map.Entry<ActorRef, Integer> entry : versions.entrySet()) {
+            int version = getVersion(entry.getKey());
+            // an unknown node that left does not change the group
+            if (entry.getValue() > version && (version >= 0 || entry.getValue() % 2 == 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Apply a membership delta received from another node.
+     * The deltas can be applied in any order: only a change newer than the known one of its node is applied.
+     * @param delta the membership delta.
+     * @return true if the delta was not known and has been applied, false otherwise.
+     */
+    public Boolean applyDelta(MembershipDelta delta) {
+        ActorRef nodeRef = delta.getNode().getActorRef();
+        if (delta.getVersion() <= getVersion(nodeRef)) {
+            return false;
+        }
+        changes.put(nodeRef, delta);
+        epoch = Math.max(epoch, delta.getEpoch());
+        removeNode(nodeRef);
+        switch (delta.getType()) {
+            case JOIN -> {
+                tombstones.remove(nodeRef);
+                addNode(List.of(delta.getNode()));
+            }
+            case LEAVE -> tombstones.put(nodeRef, null);
+        }
+        return true;
+    }
+
+    /**
+     * Record the join of a node as a new membership delta and apply it.
+     * A node that left before joins with the next incarnation.
+     * @param node the joining data node.
+     * @return the delta to disseminate.
+     */
+    public MembershipDelta recordJoin(DataNodeRef node) {
+        int version = getVersion(node.getActorRef());
+        int incarnation = version < 0 ? 0 : version / 2 + 1;
+        MembershipDelta delta = new MembershipDelta(DeltaType.JOIN, node, incarnation, epoch + 1);
+        applyDelta(delta);
+        return delta;
+    }
+
+    /**
+     * Record the leave of a node as a new membership delta and apply it.
+     * @param nodeKey the key of the leaving data node.
+     * @param nodeRef the reference to the leaving data node.
+     * @return the delta to disseminate.
+     */
+    public MembershipDelta recordLeave(Integer nodeKey, ActorRef nodeRef) {
+        int incarnation = Math.max(getVersion(nodeRef), 0) / 2;
+        MembershipDelta delta = new MembershipDelta(DeltaType.LEAVE, new DataNodeRef(nodeKey, nodeRef),
+                incarnation, epoch + 1);
+        applyDelta(delta);
+        return delta;
+    }
+
+    /**
+     * Drop the tombstones of the nodes that left long ago, once every node has learned the leave through gossip,
+     * so that the membership state is bounded by the group and the recent changes.
+     * A tombstone is timed from the first collection that sees it.
+     * The epoch of the leave is kept as the floor of the ranges it touched, so that their epoch never decreases.
+     * @param now the current time in ms.
+     */
+    public void collectTombstones(long now) {
+        Iterator<Map.Entry<ActorRef, Long>> it = tombstones.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<ActorRef, Long> tombstone = it.next();
+            if (tombstone.getValue() == null) {
+                tombstone.setValue(now);
+            } else if (now - tombstone.getValue() > TOMBSTONE_TTL) {
+                // the ranges the leave touched keep its epoch
+                MembershipDelta leave = changes.remove(tombstone.getKey());
+                for (int i = 0; i < group.size(); i++) {
+                    if (isInSpan(i, leave.getNode().getNodeKey())) {
+                        rangeFloors.merge(group.get(i).getActorRef(), leave.getEpoch(), Math::max);
+                    }
+                }
+                it.remove();
+            }
+        }
+    }
+
+    /* ------- failure detection ------- */
+
+    /**
+     * Record a heartbeat received from a monitored node.
+     * @param nodeRef the reference to the node.
+     * @param now the arrival time in ms.
+     * @param expectedInterval the heartbeat interval in ms, used for the first estimate.
+     */
+    public void heartbeat(ActorRef nodeRef, long now, long expectedInterval) {
+        HeartbeatHistory heartbeatHistory = heartbeats.get(nodeRef);
+        if (heartbeatHistory == null) {
+            heartbeats.put(nodeRef, new HeartbeatHistory(now, expectedInterval));
+        } else {
+            heartbeatHistory.heartbeat(now);
+        }
+        reportedSuspects.remove(nodeRef);
+    }
+
+    /**
+     * Stop monitoring the nodes that are not neighbors anymore, that stopped sending heartbeats
+     * and would otherwise stay suspected forever.
+     * @param neighbors the current neighbors.
+     */
+    public void retainMonitored(Collection<ActorRef> neighbors) {
+        heartbeats.keySet().retainAll(neighbors);
+    }
+
+    /**
+     * Get the suspicion level of a node.
+     * @param nodeRef the reference to the node.
+     * @param now the current time in ms.
+     * @return the phi value, 0 if the node is not monitored.
+     */
+    public double getPhi(ActorRef nodeRef, long now) {
+        HeartbeatHistory heartbeatHistory = heartbeats.get(nodeRef);
+        if (heartbeatHistory == null) {
+            return 0;
+        }
+        return heartbeatHistory.phi(now);
+    }
+
+    /**
+     * Check if a node is suspected to be down.
+     * Direct monitoring has the precedence over the suspicions reported by other nodes.
+     * @param nodeRef the reference to the node.
+     * @param now the current time in ms.
+     * @return true if the node is suspected, false otherwise.
+     */
+    public Boolean isSuspected(ActorRef nodeRef, long now) {
+        if (heartbeats.containsKey(nodeRef)) {
+            return getPhi(nodeRef, now) > PHI_THRESHOLD;
+        }
+        Long expiration = reportedSuspects.get(nodeRef);
+        return expiration != null && expiration > now;
+    }
+
+    /**
+     * Get the monitored nodes that are suspected to be down.
+     * @param now the current time in ms.
+     * @return the list of suspected nodes.
+     */
+    public List<ActorRef> getSuspected(long now) {
+        List<ActorRef> suspected = new ArrayList<>();
+        for (ActorRef nodeRef : heartbeats.keySet()) {
+            if (getPhi(nodeRef, now) > PHI_THRESHOLD) {
+                suspected.add(nodeRef);
+            }
+        }
+        return suspected;
+    }
+
+    /**
+     * Store the suspicions reported by another node.
+     * @param suspected the list of nodes suspected by the other node.
+     * @param self the reference to the node itself, never suspected.
+     * @param now the current time in ms.
+     */
+    public void reportSuspected(List<ActorRef> suspected, ActorRef self, long now) {
+        for (ActorRef nodeRef : suspected) {
+            if (nodeRef != self) {
+                reportedSuspects.put(nodeRef, now + SUSPECT_TTL);
+            }
+        }
+    }
+
+    /**
+     * Find the data nodes that are responsible for a given key, skipping the suspected ones.
+     * A suspected node is not replaced by the next node on the ring, that does not hold the key:
+     * the updates it misses are kept as hints.
+     * @param dataKey the key of the data.
+     * @param now the current time in ms.
+     * @return the list of healthy data nodes for the given key, in ring order.
+     */
+    public List<ActorRef> findAvailableDataNodes(Integer dataKey, long now) {
+        List<ActorRef> dataNodes = findDataNodes(dataKey);
+        dataNodes.removeIf(nodeRef -> isSuspected(nodeRef, now));
+        return dataNodes;
+    }
+
+    /**
+     * Pick some random nodes of the group, excluding the given one, to gossip with.
+     * @param self the reference to the node that gossips.
+     * @param fanout the number of nodes to pick.
+     * @return the list of selected nodes.
+     */
+    public List<ActorRef> getGossipTargets(ActorRef self, int fanout) {
+        List<ActorRef> targets = new ArrayList<>(getGroupActorRef());
+        targets.remove(self);
+        Collections.shuffle(targets);
+        return targets.subList(0, Math.min(fanout, targets.size()));
+    }
+
     /**
      * Get the group of data nodes.
      * @return the group of data nodes.
@@ -152,6 +869,15 @@ public class GroupManager {
         return group;
     }
 
+    /**
+     * Check if a data node is part of the group.
+     * @param nodeRef the reference to the data node.
+     * @return true if the node is in the group, false otherwise.
+     */
+    public Boolean isMember(ActorRef nodeRef) {
+        return group.stream().anyMatch(dataNode -> dataNode.getActorRef() == nodeRef);
+    }
+
     /**
      * Get the reference to the data nodes.
      * @return the reference to the data nodes.
@@ -177,7 +903,7 @@ public class GroupManager {
     private int getIndex(Integer dataKey) {
         int i = 0;
         // it is possible to use faster implementations (quicksort)
-        if (this.group.get(this.group.size() - 1).getNodeKey() > dataKey)
+        if (this.group.get(this.group.size() - 1).getNodeKey() >= dataKey)
             for (; this.group.get(i).getNodeKey() < dataKey; i++) {
             }
         return i;
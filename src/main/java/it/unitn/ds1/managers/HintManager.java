@@ -0,0 +1,125 @@
+package it.unitn.ds1.managers;
+
+import java.util.*;
+
+import akka.actor.ActorRef;
+import it.unitn.ds1.managers.DataManager.Data;
+import it.unitn.ds1.managers.DataManager.Stamp;
+
+/**
+ * HintManager
+ * A class used to store the updates addressed to replicas that are suspected to be down.
+ * Instantiated by every data node, that acts as a coordinator.
+ * The hints are kept in a bounded queue per target and replayed in batches once the target is reachable again.
+ */
+public class HintManager {
+    private final int maxHintsPerTarget;
+
+    //              target, (key - data) in insertion order
+    private final HashMap<ActorRef, LinkedHashMap<Integer, Data>> hints;
+    //              target, time of the last replay
+    private final HashMap<ActorRef, Long> lastReplay;
+
+    public HintManager(int maxHintsPerTarget) {
+        this.maxHintsPerTarget = maxHintsPerTarget;
+        this.hints = new HashMap<>();
+        this.lastReplay = new HashMap<>();
+    }
+
+    /**
+     * Store a hint for a target.
+     * Only the most recent version of a key is kept, the oldest hint is dropped when the queue is full.
+     * @param target the replica that missed the update
+     * @param key the key of the data item
+     * @param data the data item
+     */
+    public void addHint(ActorRef target, Integer key, Data data) {
+        LinkedHashMap<Integer, Data> queue = hints.computeIfAbsent(target, t -> new LinkedHashMap<>());
+        Data oldData = queue.get(key);
+        if (oldData != null && oldData.isNewer(data)) {
+            return;
+        }
+        queue.remove(key);
+        queue.put(key, data);
+        if (queue.size() > maxHintsPerTarget) {
+            Integer eldest = queue.keySet().iterator().next();
+            queue.remove(eldest);
+        }
+    }
+
+    /**
+     * Get the targets that have pending hints.
+     * @return the set of targets
+     */
+    public Set<ActorRef> getTargets() {
+        return new HashSet<>(hints.keySet());
+    }
+
+    /**
+     * Get the next batch of hints to replay for a target.
+     * A batch is returned only if the last replay happened more than the given interval ago.
+     * The hints stay in the queue until they are acknowledged.
+     * @param target the replica to replay to
+     * @param batchSize the maximum number of hints in the batch
+     * @param now the current time in ms
+     * @param interval the minimum time between two replays in ms
+     * @return the batch of hints, empty if there is nothing to replay
+     */
+    public Map<Integer, Data> nextBatch(ActorRef target, int batchSize, long now, long interval) {
+        Map<Integer, Data> batch = new HashMap<>();
+        LinkedHashMap<Integer, Data> queue = hints.get(target);
+        if (queue == null || now - lastReplay.getOrDefault(target, 0L) < interval) {
+            return batch;
+        }
+        for (Map.Entry<Integer, Data> entry : queue.entrySet()) {
+            if (batch.size() >= batchSize) {
+                break;
+            }
+            batch.put(entry.getKey(), entry.getValue());
+        }
+        lastReplay.put(target, now);
+        return batch;
+    }
+
+    /**
+     * Remove the hints acknowledged by a target.
+     * A hint is kept if a newer item has been stored in the meantime, e.g. a blind write with the same version.
+     * @param target the replica that acknowledged the hints
+     * @param stamps the acknowledged keys with their stamps
+     */
+    public void ackHints(ActorRef target, Map<Integer, Stamp> stamps) {
+        LinkedHashMap<Integer, Data> queue = hints.get(target);
+        if (queue == null) {
+            return;
+        }
+        for (Map.Entry<Integer, Stamp> entry : stamps.entrySet()) {
+            Data data = queue.get(entry.getKey());
+            if (data != null && !data.getStamp().isNewer(entry.getValue())) {
+                queue.remove(entry.getKey());
+            }
+        }
+        if (queue.isEmpty()) {
+            hints.remove(target);
+            lastReplay.remove(target);
+        }
+    }
+
+    /**
+     * Drop all the hints of a target, e.g. when it leaves the group.
+     * @param target the replica
+     */
+    public void removeTarget(ActorRef target) {
+        hints.remove(target);
+        lastReplay.remove(target);
+    }
+
+    /**
+     * Get the number of pending hints for a target.
+     * @param target the replica
+     * @return the number of hints
+     */
+    public int size(ActorRef target) {
+        LinkedHashMap<Integer, Data> queue = hints.get(target);
+        return queue == null ? 0 : queue.size();
+    }
+}
@@ -2,59 +2,256 @@ package it.unitn.ds1.managers;
 
 import java.util.HashMap;
 
+import akka.actor.ActorRef;
 import it.unitn.ds1.managers.DataManager.Data;
+import it.unitn.ds1.managers.DataManager.Stamp;
 
 import java.util.*;
 
 /**
  * JoinManager
  * This class is used to manage the join operation of a new node.
+ * The items are streamed in chunks from every source, the manager keeps the cursor of each stream
+ * so that a stream can be resumed from the last received key.
+ * Only one source streams the values, the others stream the stamps of their items (digests):
+ * the values are fetched separately only for the keys for which another source holds a newer item.
  */
 public class JoinManager {
-    private final int replicasCount;
+    private final int maxRetries;
+    private final ActorRef valueSource;
 
-    private final HashMap<Integer, Data> mostUpdatedData;
-    private final HashMap<Integer, Integer> counter;
-    private final Set<Integer> items;
+    //                    source, last received key
+    private final HashMap<ActorRef, Integer> cursors;
+    //                    source, retries on the current chunk
+    private final HashMap<ActorRef, Integer> retries;
+    private final Set<ActorRef> pendingSources;
+    //                    key, most recent stamp in the digests
+    private final HashMap<Integer, Stamp> bestStamps;
+    //                    key, source holding the most recent version
+    private final HashMap<Integer, ActorRef> bestHolders;
+    private final Set<ActorRef> pendingFetches;
+    private int fetchRetries; // rounds of fetches asked again after a timeout
+    //                    key, stamp of the received value
+    private final HashMap<Integer, Stamp> receivedStamps;
+    private final long startTime;
+    private int receivedItems;
 
-    public JoinManager(int replicasCount, Set<Integer> items) {
-        this.replicasCount = replicasCount;
-        this.items = new HashSet<>(items);
-        this.counter = new HashMap<>();
-        this.mostUpdatedData = new HashMap<>();
+    public JoinManager(Collection<ActorRef> sources, ActorRef valueSource, int maxRetries, long startTime) {
+        this.maxRetries = maxRetries;
+        this.valueSource = valueSource;
+        this.cursors = new HashMap<>();
+        this.retries = new HashMap<>();
+        this.pendingSources = new HashSet<>(sources);
+        this.bestStamps = new HashMap<>();
+        this.bestHolders = new HashMap<>();
+        this.pendingFetches = new HashSet<>();
+        this.fetchRetries = 0;
+        this.receivedStamps = new HashMap<>();
+        this.startTime = startTime;
+        this.receivedItems = 0;
+        for (ActorRef source : sources) {
+            cursors.put(source, Integer.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Get the sources whose stream is not completed yet.
+     * @return the set of pending sources
+     */
+    public Set<ActorRef> getPendingSources() {
+        return new HashSet<>(pendingSources);
+    }
+
+    /**
+     * Check if a source streams the values or only the stamps.
+     * @param source the source node
+     * @return true if the source streams the values, false otherwise
+     */
+    public Boolean isValueSource(ActorRef source) {
+        return source == valueSource;
     }
 
     /**
-     * Retrieve the data for a given key and add it to the mostUpdatedData map.
-     * If the data is already present, check if the new data is newer and replace it.
-     * @param key the key of the data
-     * @param receivedData the data to add
-     * @return true if all the data has been received, false otherwise
+     * Get the cursor of the stream of a source, i.e. the last received key.
+     * @param source the source node
+     * @return the cursor
      */
-    public Boolean addData(Integer key, Data receivedData) {
-        Data currentData = mostUpdatedData.get(key);
-        if (currentData == null) {
-            mostUpdatedData.put(key, receivedData);
-        } else {
-            if (receivedData.isNewer(mostUpdatedData.get(key))) {
-                mostUpdatedData.put(key, receivedData);
+    public Integer getCursor(ActorRef source) {
+        return cursors.get(source);
+    }
+
+    /**
+     * Register a chunk received from a source and move its cursor forward.
+     * @param source the source node
+     * @param itemsCount the number of items in the chunk
+     * @param cursor the last key of the chunk
+     * @param last true if the source has no more items
+     * @return true if all the streams are completed, false otherwise
+     */
+    public Boolean addChunk(ActorRef source, int itemsCount, Integer cursor, boolean last) {
+        if (!pendingSources.contains(source)) {
+            return pendingSources.isEmpty();
+        }
+        receivedItems += itemsCount;
+        cursors.put(source, cursor);
+        retries.remove(source);
+        if (last) {
+            pendingSources.remove(source);
+        }
+        return pendingSources.isEmpty();
+    }
+
+    /**
+     * Register the values received, i.e. stored by the joining node.
+     * @param items the received items
+     */
+    public void addValues(Map<Integer, Data> items) {
+        for (Map.Entry<Integer, Data> entry : items.entrySet()) {
+            receivedStamps.merge(entry.getKey(), entry.getValue().getStamp(),
+                    (oldStamp, newStamp) -> newStamp.isNewer(oldStamp) ? newStamp : oldStamp);
+        }
+    }
+
+    /**
+     * Register the stamps received from a digest source.
+     * @param source the source node
+     * @param stamps the keys with their stamps
+     */
+    public void addDigest(ActorRef source, Map<Integer, Stamp> stamps) {
+        for (Map.Entry<Integer, Stamp> entry : stamps.entrySet()) {
+            Stamp bestStamp = bestStamps.get(entry.getKey());
+            if (bestStamp == null || entry.getValue().isNewer(bestStamp)) {
+                bestStamps.put(entry.getKey(), entry.getValue());
+                bestHolders.put(entry.getKey(), source);
             }
         }
-        counter.put(key, counter.getOrDefault(key, 0) + 1);
+    }
 
-        if (counter.getOrDefault(key, 0) == replicasCount) {
-            items.remove(key);
+    /**
+     * Find the keys whose received item is older than the one in the digests.
+     * @return the keys to fetch grouped by the source that holds the most recent item
+     */
+    public Map<ActorRef, Set<Integer>> getMissingValues() {
+        Map<ActorRef, Set<Integer>> missing = new HashMap<>();
+        for (Map.Entry<Integer, Stamp> entry : bestStamps.entrySet()) {
+            Stamp localStamp = receivedStamps.get(entry.getKey());
+            if (localStamp == null || entry.getValue().isNewer(localStamp)) {
+                missing.computeIfAbsent(bestHolders.get(entry.getKey()), s -> new HashSet<>()).add(entry.getKey());
+            }
         }
+        return missing;
+    }
 
-        return items.isEmpty();
+    /**
+     * Register the sources the missing values are fetched from.
+     * @param sources the source nodes
+     */
+    public void startFetches(Set<ActorRef> sources) {
+        pendingFetches.addAll(sources);
     }
 
     /**
-     * Get the data that has been received.
-     * @return the data that has been received
+     * Register the values fetched from a source.
+     * @param source the source node
+     * @param itemsCount the number of fetched values
+     * @return true if all the fetches are completed, false otherwise
      */
-    public HashMap<Integer, Data> getData() {
-        return mostUpdatedData;
+    public Boolean fetchCompleted(ActorRef source, int itemsCount) {
+        if (pendingFetches.remove(source)) {
+            receivedItems += itemsCount;
+        }
+        return pendingFetches.isEmpty();
     }
 
+    /**
+     * Check if some fetched values are still missing.
+     * @return true if some source has not sent the values yet, false otherwise
+     */
+    public Boolean hasPendingFetches() {
+        return !pendingFetches.isEmpty();
+    }
+
+    /**
+     * Check if the missing values can be asked again after a timeout.
+     * The values received in the meantime are not asked again.
+     * @return true if the fetches must be repeated, false if the retries are exhausted
+     */
+    public Boolean retryFetches() {
+        if (++fetchRetries > maxRetries) {
+            return false;
+        }
+        pendingFetches.clear();
+        return true;
+    }
+
+    /**
+     * Get the keys whose most recent value has not been received.
+     * @return the set of keys
+     */
+    public Set<Integer> getMissingKeys() {
+        Set<Integer> keys = new TreeSet<>();
+        getMissingValues().values().forEach(keys::addAll);
+        return keys;
+    }
+
+    /**
+     * Check if the request of a chunk can be retried after a timeout.
+     * When the retries are exhausted the source is considered dead and its stream is dropped,
+     * the items are still received from the other replicas.
+     * @param source the source node
+     * @return true if the chunk must be asked again, false otherwise
+     */
+    public Boolean retry(ActorRef source) {
+        int count = retries.getOrDefault(source, 0) + 1;
+        if (count > maxRetries) {
+            pendingSources.remove(source);
+            retries.remove(source);
+            return false;
+        }
+        retries.put(source, count);
+        return true;
+    }
+
+    /**
+     * Reset the retries of a source that reported its chunk is waiting to be sent: it is alive, only throttled.
+     * @param source the source node
+     */
+    public void keepAlive(ActorRef source) {
+        retries.remove(source);
+    }
+
+    /**
+     * Check if all the streams are completed.
+     * @return true if the missing values can be fetched, false otherwise
+     */
+    public Boolean isCompleted() {
+        return pendingSources.isEmpty();
+    }
+
+    /**
+     * Get the number of items that have been received.
+     * @return the number of items
+     */
+    public int getReceivedItems() {
+        return receivedItems;
+    }
+
+    /**
+     * Get the throughput of the join.
+     * @param now the current time in ms
+     * @return the number of received keys per second
+     */
+    public double getThroughput(long now) {
+        long elapsed = Math.max(now - startTime, 1);
+        return receivedItems * 1000.0 / elapsed;
+    }
+
+    /**
+     * Get the duration of the join.
+     * @param now the current time in ms
+     * @return the elapsed time in ms
+     */
+    public long getElapsedTime(long now) {
+        return now - startTime;
+    }
 }
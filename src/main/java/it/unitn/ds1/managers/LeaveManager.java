@@ -0,0 +1,112 @@
+package it.unitn.ds1.managers;
+
+import java.util.*;
+
+import akka.actor.ActorRef;
+import it.unitn.ds1.managers.DataManager.Data;
+
+/**
+ * LeaveManager
+ * This class is used to manage the leave operation of a node.
+ * It keeps the batches of items sent to the new owners until they are acknowledged.
+ */
+public class LeaveManager {
+    private final int maxRetries;
+
+    //                    batchId, batch
+    private final HashMap<Integer, Batch> pendingBatches;
+    private int nextBatchId;
+    private int retries;
+
+    public LeaveManager(int maxRetries) {
+        this.maxRetries = maxRetries;
+        this.pendingBatches = new HashMap<>();
+        this.nextBatchId = 0;
+        this.retries = 0;
+    }
+
+    /**
+     * Batch
+     * A class that represents a set of items addressed to a single new owner.
+     */
+    static public class Batch {
+        private final ActorRef destination;
+        private final Map<Integer, Data> items;
+
+        public Batch(ActorRef destination, Map<Integer, Data> items) {
+            this.destination = destination;
+            this.items = items;
+        }
+
+        /**
+         * Get the node that will receive the batch.
+         * @return the destination node
+         */
+        public ActorRef getDestination() {
+            return destination;
+        }
+
+        /**
+         * Get the items of the batch.
+         * @return the items
+         */
+        public Map<Integer, Data> getItems() {
+            return items;
+        }
+    }
+
+    /**
+     * Split the items of a destination in batches of the given size and register them.
+     * @param destination the new owner of the items
+     * @param items the items sorted by key
+     * @param batchSize the maximum number of items in a batch
+     */
+    public void addItems(ActorRef destination, SortedMap<Integer, Data> items, int batchSize) {
+        Map<Integer, Data> batch = new HashMap<>();
+        for (Map.Entry<Integer, Data> entry : items.entrySet()) {
+            batch.put(entry.getKey(), entry.getValue());
+            if (batch.size() >= batchSize) {
+                pendingBatches.put(nextBatchId++, new Batch(destination, batch));
+                batch = new HashMap<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            pendingBatches.put(nextBatchId++, new Batch(destination, batch));
+        }
+    }
+
+    /**
+     * Get the batches that have not been acknowledged yet.
+     * @return the pending batches by id
+     */
+    public Map<Integer, Batch> getPendingBatches() {
+        return new HashMap<>(pendingBatches);
+    }
+
+    /**
+     * Register the acknowledgement of a batch.
+     * @param batchId the identifier of the batch
+     * @return true if all the batches are acknowledged, false otherwise
+     */
+    public Boolean ack(Integer batchId) {
+        pendingBatches.remove(batchId);
+        return pendingBatches.isEmpty();
+    }
+
+    /**
+     * Check if the pending batches can be sent again after a timeout.
+     * @return true if they must be sent again, false if the retries are exhausted
+     */
+    public Boolean retry() {
+        retries++;
+        return retries <= maxRetries;
+    }
+
+    /**
+     * Check if all the batches are acknowledged.
+     * @return true if the node can leave, false otherwise
+     */
+    public Boolean isCompleted() {
+        return pendingBatches.isEmpty();
+    }
+}
@@ -0,0 +1,112 @@
+package it.unitn.ds1.managers;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+import akka.actor.ActorRef;
+import it.unitn.ds1.managers.DataManager.Data;
+
+/**
+ * PartitionManager
+ * A class used to route the keys of a data node to its partitions.
+ * Instantiated by every data node.
+ * Every partition owns a hash slice of the keys, the operations that need the items of
+ * every partition (join, leave, recovery) collect them with a gather, completed once all the partitions replied.
+ */
+public class PartitionManager {
+    private final List<ActorRef> partitions;
+
+    //                    gatherId, gather
+    private final HashMap<Integer, Gather> gathers;
+    private int nextGatherId;
+
+    public PartitionManager(List<ActorRef> partitions) {
+        this.partitions = Collections.unmodifiableList(new ArrayList<>(partitions));
+        this.gathers = new HashMap<>();
+        this.nextGatherId = 0;
+    }
+
+    /**
+     * Gather
+     * A class that represents a collection of items from every partition.
+     */
+    static private class Gather {
+        private final int limit;
+        private final Consumer<SortedMap<Integer, Data>> callback;
+        private final SortedMap<Integer, Data> items;
+        private int pendingReplies;
+
+        public Gather(int partitionsCount, int limit, Consumer<SortedMap<Integer, Data>> callback) {
+            this.limit = limit;
+            this.callback = callback;
+            this.items = new TreeMap<>();
+            this.pendingReplies = partitionsCount;
+        }
+    }
+
+    /**
+     * Get the partition that owns a key.
+     * @param key the key of the data item
+     * @return the partition
+     */
+    public ActorRef getPartition(Integer key) {
+        // spread the consecutive keys over the partitions
+        int hash = key * 0x9E3779B9;
+        return partitions.get(Math.floorMod(hash ^ (hash >>> 16), partitions.size()));
+    }
+
+    /**
+     * Get all the partitions.
+     * @return the list of partitions
+     */
+    public List<ActorRef> getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * Group the data items by the partition that owns them.
+     * @param items the data items
+     * @return the data items of every partition
+     */
+    public Map<ActorRef, Map<Integer, Data>> splitByPartition(Map<Integer, Data> items) {
+        Map<ActorRef, Map<Integer, Data>> split = new HashMap<>();
+        for (Map.Entry<Integer, Data> entry : items.entrySet()) {
+            split.computeIfAbsent(getPartition(entry.getKey()), p -> new HashMap<>()).put(entry.getKey(), entry.getValue());
+        }
+        return split;
+    }
+
+    /**
+     * Start a new gather.
+     * @param limit the maximum number of items kept, the ones with the lowest keys
+     * @param callback the action run with the collected items once every partition replied
+     * @return the identifier of the gather
+     */
+    public int startGather(int limit, Consumer<SortedMap<Integer, Data>> callback) {
+        int gatherId = nextGatherId++;
+        gathers.put(gatherId, new Gather(partitions.size(), limit, callback));
+        return gatherId;
+    }
+
+    /**
+     * Register the items collected by a partition.
+     * When every partition replied, the callback of the gather is run.
+     * @param gatherId the identifier of the gather
+     * @param items the items of the partition
+     */
+    public void addGatherReply(int gatherId, Map<Integer, Data> items) {
+        Gather gather = gathers.get(gatherId);
+        if (gather == null) {
+            return;
+        }
+        gather.items.putAll(items);
+        while (gather.items.size() > gather.limit) {
+            gather.items.remove(gather.items.lastKey());
+        }
+        gather.pendingReplies--;
+        if (gather.pendingReplies == 0) {
+            gathers.remove(gatherId);
+            gather.callback.accept(gather.items);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package it.unitn.ds1.managers;
+
+import java.util.*;
+
+import akka.actor.ActorRef;
+
+/**
+ * RateLimiter
+ * A class used to limit the rate of the client requests accepted by a coordinator.
+ * Instantiated by every data node.
+ * Every client has its own token bucket, so that a client flooding the coordinator is rejected
+ * without slowing down the others. An optional global bucket limits the sum of all the clients.
+ * A rate equal to 0 disables the corresponding limit.
+ */
+public class RateLimiter {
+    private static final long IDLE_TIMEOUT = 60000; // in ms, a bucket not used for this time is dropped
+    private static final long CLEANUP_INTERVAL = 10000; // in ms
+
+    private double clientRate; // requests per second of every client
+    private double clientBurst;
+    private double globalRate; // requests per second of all the clients
+    private double globalBurst;
+
+    //                    client, bucket
+    private final HashMap<ActorRef, Bucket> clientBuckets;
+    private final Bucket globalBucket;
+    private long lastCleanup;
+
+    public RateLimiter(double clientRate, double clientBurst, double globalRate, double globalBurst, long now) {
+        this.clientRate = clientRate;
+        this.clientBurst = clientBurst;
+        this.globalRate = globalRate;
+        this.globalBurst = globalBurst;
+        this.clientBuckets = new HashMap<>();
+        this.globalBucket = new Bucket(globalBurst, now);
+        this.lastCleanup = now;
+    }
+
+    /**
+     * Scope
+     * The limit that rejected a request.
+     */
+    public enum Scope {
+        CLIENT,
+        GLOBAL
+    }
+
+    /**
+     * Bucket
+     * A class that represents a token bucket, a request consumes one token.
+     */
+    static private class Bucket {
+        private double tokens;
+        private long lastRefill;
+
+        public Bucket(double tokens, long now) {
+            this.tokens = tokens;
+            this.lastRefill = now;
+        }
+
+        /**
+         * Add the tokens accumulated since the last refill.
+         * @param rate the tokens per second
+         * @param burst the size of the bucket
+         * @param now the current time in ms
+         */
+        private void refill(double rate, double burst, long now) {
+            tokens = Math.min(tokens + rate * (now - lastRefill) / 1000.0, burst);
+            lastRefill = now;
+        }
+
+        /**
+         * Get the time before a token is available.
+         * @param rate the tokens per second
+         * @return the time in ms
+         */
+        private long getRetryAfter(double rate) {
+            return (long) Math.ceil((1 - tokens) / rate * 1000);
+        }
+    }
+
+    /**
+     * Change the limits at runtime.
+     * @param clientRate the requests per second of every client, 0 to disable the limit
+     * @param clientBurst the requests a client can send at once
+     * @param globalRate the requests per second of all the clients, 0 to disable the limit
+     * @param globalBurst the requests all the clients can send at once
+     */
+    public void configure(double clientRate, double clientBurst, double globalRate, double globalBurst) {
+        this.clientRate = clientRate;
+        this.clientBurst = clientBurst;
+        this.globalRate = globalRate;
+        this.globalBurst = globalBurst;
+    }
+
+    /**
+     * Consume a token for a request of a client, if available.
+     * The token is consumed from both the buckets only if both have one.
+     * @param client the client that sent the request
+     * @param now the current time in ms
+     * @return null if the request is accepted, the limit that rejected it otherwise
+     */
+    public Scope tryAcquire(ActorRef client, long now) {
+        cleanup(now);
+
+        Bucket bucket = null;
+        if (clientRate > 0) {
+            bucket = clientBuckets.computeIfAbsent(client, c -> new Bucket(clientBurst, now));
+            bucket.refill(clientRate, clientBurst, now);
+            if (bucket.tokens < 1) {
+                return Scope.CLIENT;
+            }
+        }
+        if (globalRate > 0) {
+            globalBucket.refill(globalRate, globalBurst, now);
+            if (globalBucket.tokens < 1) {
+                return Scope.GLOBAL;
+            }
+            globalBucket.tokens -= 1;
+        }
+        if (bucket != null) {
+            bucket.tokens -= 1;
+        }
+        return null;
+    }
+
+    /**
+     * Get the time a rejected client should wait before sending a new request.
+     * @param client the client
+     * @param scope the limit that rejected the client
+     * @return the time in ms
+     */
+    public long getRetryAfter(ActorRef client, Scope scope) {
+        if (scope == Scope.GLOBAL) {
+            return globalBucket.getRetryAfter(globalRate);
+        }
+        Bucket bucket = clientBuckets.get(client);
+        return bucket == null ? 0 : bucket.getRetryAfter(clientRate);
+    }
+
+    /**
+     * Drop the buckets of the clients that have not sent requests for a while.
+     * @param now the current time in ms
+     */
+    private void cleanup(long now) {
+        if (now - lastCleanup < CLEANUP_INTERVAL) {
+            return;
+        }
+        lastCleanup = now;
+        clientBuckets.values().removeIf(bucket -> now - bucket.lastRefill > IDLE_TIMEOUT);
+    }
+}
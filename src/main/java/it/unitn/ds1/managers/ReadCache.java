@@ -0,0 +1,266 @@
+package it.unitn.ds1.managers;
+
+import java.util.*;
+
+import it.unitn.ds1.managers.DataManager.Data;
+
+/**
+ * ReadCache
+ * A class used to keep the last value read through a quorum for the popular keys.
+ * Instantiated by every coordinator.
+ * It is a segmented LRU: a new item enters the probation segment, and moves to the protected segment
+ * when it is read again, so that a scan of keys read once cannot evict the popular ones.
+ * The protected items pushed out by newer ones go back to probation, the items evicted leave the probation.
+ * Every item remembers when its version was last checked against the replicas, to serve it without a check
+ * while the check is fresh. A capacity equal to 0 disables the cache.
+ */
+public class ReadCache {
+    private static final double PROTECTED_SHARE = 0.8; // share of the capacity for the protected segment
+    private static final int ENTRY_OVERHEAD = 64; // in bytes, estimated cost of an item beyond its fields
+
+    private int capacity; // items
+    private final long freshness; // in ms, time a checked version is trusted without checking it again
+
+    //                           key, item, least recently used first (insertion order, moved on lookup)
+    private final LinkedHashMap<Integer, Entry> probation;
+    private final LinkedHashMap<Integer, Entry> protectedSegment;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long bytes; // estimated size of the items
+
+    public ReadCache(int capacity, long freshness) {
+        this.capacity = capacity;
+        this.freshness = freshness;
+        this.probation = new LinkedHashMap<>();
+        this.protectedSegment = new LinkedHashMap<>();
+        this.hits = 0;
+        this.misses = 0;
+        this.evictions = 0;
+        this.bytes = 0;
+    }
+
+    /**
+     * Entry
+     * A class that represents a cached item with the time its version was last checked.
+     */
+    static private class Entry {
+        private final Data data;
+        private long checkTime; // in ms
+
+        public Entry(Data data, long checkTime) {
+            this.data = data;
+            this.checkTime = checkTime;
+        }
+
+        /**
+         * Estimate the memory used by the item.
+         * The key and the version take 4 bytes each, the timestamp and the check time 8 bytes each,
+         * the value 2 bytes per character.
+         * @return the size in bytes
+         */
+        private long getSize() {
+            return 2 * Integer.BYTES + 2 * Long.BYTES + 2L * data.getValue().length() + ENTRY_OVERHEAD;
+        }
+    }
+
+    /**
+     * Check if the cache is enabled.
+     * @return true if the capacity is greater than 0
+     */
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * Change the capacity at runtime, evicting the items over it.
+     * @param capacity the maximum number of items, 0 to disable the cache
+     */
+    public void resize(int capacity) {
+        this.capacity = capacity;
+        evict();
+    }
+
+    /**
+     * Look up a key, counting a miss if it is not cached.
+     * A key found in the probation segment is promoted to the protected one,
+     * a key found in the protected segment moves to its most recently used end.
+     * @param key the key
+     * @return the cached item, null if not cached
+     */
+    public Data lookup(Integer key) {
+        Entry entry = probation.remove(key);
+        if (entry != null) {
+            protectedSegment.put(key, entry);
+            // the least recently used protected items go back to probation
+            int protectedCapacity = Math.max((int) (capacity * PROTECTED_SHARE), 1);
+            Iterator<Map.Entry<Integer, Entry>> it = protectedSegment.entrySet().iterator();
+            while (protectedSegment.size() > protectedCapacity && it.hasNext()) {
+                Map.Entry<Integer, Entry> lru = it.next();
+                it.remove();
+                probation.put(lru.getKey(), lru.getValue());
+            }
+        } else {
+            entry = protectedSegment.remove(key);
+            if (entry != null) {
+                protectedSegment.put(key, entry);
+            }
+        }
+        if (entry == null) {
+            if (isEnabled()) {
+                misses++;
+            }
+            return null;
+        }
+        return entry.data;
+    }
+
+    /**
+     * Get a cached item, without changing its position.
+     * @param key the key
+     * @return the cached item, null if not cached
+     */
+    public Data peek(Integer key) {
+        Entry entry = getEntry(key);
+        return entry == null ? null : entry.data;
+    }
+
+    /**
+     * Check if the version of a cached item has been checked recently enough to serve it without a check.
+     * @param key the key
+     * @param now the current time in ms
+     * @return true if the item can be served as it is
+     */
+    public boolean isFresh(Integer key, long now) {
+        Entry entry = getEntry(key);
+        return entry != null && now - entry.checkTime <= freshness;
+    }
+
+    /**
+     * Put the result of a quorum read in the cache.
+     * @param key the key
+     * @param data the item read
+     * @param readTime the time the read started, in ms
+     */
+    public void put(Integer key, Data data, long readTime) {
+        if (!isEnabled()) {
+            return;
+        }
+        invalidate(key);
+        Entry entry = new Entry(new Data(data.getValue(), data.getVersion(), data.getTimestamp()), readTime);
+        probation.put(key, entry);
+        bytes += entry.getSize();
+        evict();
+    }
+
+    /**
+     * Record that the replicas confirmed the version of a cached item.
+     * @param key the key
+     * @param checkTime the time the check started, in ms
+     */
+    public void markChecked(Integer key, long checkTime) {
+        Entry entry = getEntry(key);
+        if (entry != null) {
+            entry.checkTime = Math.max(entry.checkTime, checkTime);
+        }
+    }
+
+    /**
+     * Remove a key from the cache, when it is updated or its cached version is stale.
+     * @param key the key
+     */
+    public void invalidate(Integer key) {
+        Entry entry = probation.remove(key);
+        if (entry == null) {
+            entry = protectedSegment.remove(key);
+        }
+        if (entry != null) {
+            bytes -= entry.getSize();
+        }
+    }
+
+    /**
+     * Remove all the items, keeping the counters.
+     */
+    public void clear() {
+        probation.clear();
+        protectedSegment.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Count a read served from the cache.
+     */
+    public void recordHit() {
+        hits++;
+    }
+
+    /**
+     * Count a cached item found stale, that has to be read again.
+     */
+    public void recordMiss() {
+        misses++;
+    }
+
+    /**
+     * Get the share of the reads served from the cache.
+     * @return the hit ratio, 0 if no read has been looked up
+     */
+    public double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Get the estimated memory used by the cached items.
+     * @return the size in bytes
+     */
+    public long getMemoryUsage() {
+        return bytes;
+    }
+
+    public int size() {
+        return probation.size() + protectedSegment.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get a cached item without changing its position: the segments are in insertion order,
+     * only lookup moves the items.
+     * @param key the key
+     * @return the item, null if not cached
+     */
+    private Entry getEntry(Integer key) {
+        Entry entry = probation.get(key);
+        return entry != null ? entry : protectedSegment.get(key);
+    }
+
+    /**
+     * Evict the least recently used items over the capacity, from the probation segment first.
+     */
+    private void evict() {
+        while (size() > capacity) {
+            LinkedHashMap<Integer, Entry> segment = probation.isEmpty() ? protectedSegment : probation;
+            Iterator<Map.Entry<Integer, Entry>> it = segment.entrySet().iterator();
+            bytes -= it.next().getValue().getSize();
+            it.remove();
+            evictions++;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package it.unitn.ds1.managers;
+
+import java.util.*;
+
+import akka.actor.ActorRef;
+
+/**
+ * RebalanceGovernor
+ * A class used to limit the traffic spent on rebalancing (join, leave, recovery and hints replay).
+ * Instantiated by every data node.
+ * It uses two token buckets, one for bytes and one for messages per second: the transfers exceeding
+ * the rate are kept in a backlog and sent later. The rate is reduced when the latency of the client
+ * requests rises over the target and increased again when it goes back under it.
+ */
+public class RebalanceGovernor {
+    private static final double LATENCY_SMOOTHING = 0.2; // weight of the last sample in the latency average
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final double INCREASE_STEP = 0.05; // fraction of the maximum rate added at every adjustment
+    private static final double MIN_RATE_FRACTION = 0.05;
+    private static final long ADJUST_INTERVAL = 1000; // in ms
+
+    private long maxBytesRate; // bytes per second
+    private long maxMessagesRate; // messages per second
+    private long targetLatency; // in ms
+    private double rateFraction; // current rate, as a fraction of the maximum one
+    private double byteTokens;
+    private double messageTokens;
+    private long lastRefill;
+    private double latencyAverage;
+    private int latencySamples; // samples recorded since the last adjustment
+    private long lastAdjust;
+    private final Deque<Transfer> backlog;
+    private final Set<List<Object>> queuedIds; // identities of the transfers in the backlog
+    private long backlogBytes;
+
+    public RebalanceGovernor(long maxBytesRate, long maxMessagesRate, long targetLatency, long now) {
+        this.maxBytesRate = maxBytesRate;
+        this.maxMessagesRate = maxMessagesRate;
+        this.targetLatency = targetLatency;
+        this.rateFraction = 1.0;
+        this.byteTokens = maxBytesRate;
+        this.messageTokens = maxMessagesRate;
+        this.lastRefill = now;
+        this.latencyAverage = 0;
+        this.latencySamples = 0;
+        this.lastAdjust = now;
+        this.backlog = new ArrayDeque<>();
+        this.queuedIds = new HashSet<>();
+        this.backlogBytes = 0;
+    }
+
+    /**
+     * Transfer
+     * A class that represents a rebalancing message waiting to be sent.
+     * A transfer with an identity (e.g. a batch sent again after a timeout) is queued at most once.
+     */
+    static public class Transfer {
+        private final ActorRef target;
+        private final Object message;
+        private final int bytes;
+        private final List<Object> id; // target, message type and id of the transfer, null if it has none
+
+        public Transfer(ActorRef target, Object message, int bytes) {
+            this(target, message, bytes, null);
+        }
+
+        public Transfer(ActorRef target, Object message, int bytes, Object id) {
+            this.target = target;
+            this.message = message;
+            this.bytes = bytes;
+            this.id = id == null ? null : List.of(target, message.getClass(), id);
+        }
+
+        /**
+         * Get the receiver of the message.
+         * @return the target node
+         */
+        public ActorRef getTarget() {
+            return target;
+        }
+
+        /**
+         * Get the message to send.
+         * @return the message
+         */
+        public Object getMessage() {
+            return message;
+        }
+
+        /**
+         * Get the estimated size of the message.
+         * @return the size in bytes
+         */
+        public int getBytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * Change the limits of the governor.
+     * @param maxBytesRate the maximum bytes per second
+     * @param maxMessagesRate the maximum messages per second
+     * @param targetLatency the client latency over which the rate is reduced, in ms
+     */
+    public void configure(long maxBytesRate, long maxMessagesRate, long targetLatency) {
+        this.maxBytesRate = maxBytesRate;
+        this.maxMessagesRate = maxMessagesRate;
+        this.targetLatency = targetLatency;
+    }
+
+    /**
+     * Add the tokens accumulated since the last refill.
+     * The buckets hold at most one second of traffic.
+     * @param now the current time in ms
+     */
+    private void refill(long now) {
+        double elapsed = (now - lastRefill) / 1000.0;
+        lastRefill = now;
+        byteTokens = Math.min(byteTokens + getBytesRate() * elapsed, getBytesRate());
+        messageTokens = Math.min(messageTokens + getMessagesRate() * elapsed, getMessagesRate());
+    }
+
+    /**
+     * Consume the tokens for a transfer, if available.
+     * A transfer larger than the bucket is allowed when the bucket is full.
+     * @param bytes the size of the transfer
+     * @return true if the transfer can be sent, false otherwise
+     */
+    private Boolean consume(int bytes) {
+        if (messageTokens < 1 || byteTokens < Math.min(bytes, getBytesRate())) {
+            return false;
+        }
+        messageTokens -= 1;
+        byteTokens -= bytes;
+        return true;
+    }
+
+    /**
+     * Check if a transfer can be sent now.
+     * Nothing can overtake the transfers already in the backlog.
+     * @param bytes the size of the transfer
+     * @param now the current time in ms
+     * @return true if the transfer can be sent, false if it has to be put in the backlog
+     */
+    public Boolean tryAcquire(int bytes, long now) {
+        refill(now);
+        return backlog.isEmpty() && consume(bytes);
+    }
+
+    /**
+     * Put a transfer in the backlog, unless a transfer with the same identity is already there.
+     * @param transfer the transfer
+     * @return true if the transfer has been queued, false if it was already in the backlog
+     */
+    public Boolean enqueue(Transfer transfer) {
+        if (transfer.id != null && !queuedIds.add(transfer.id)) {
+            return false;
+        }
+        backlog.addLast(transfer);
+        backlogBytes += transfer.getBytes();
+        return true;
+    }
+
+    /**
+     * Take from the backlog the transfers that can be sent now.
+     * @param now the current time in ms
+     * @return the transfers to send, in order
+     */
+    public List<Transfer> drain(long now) {
+        refill(now);
+        List<Transfer> transfers = new ArrayList<>();
+        while (!backlog.isEmpty() && consume(backlog.peekFirst().getBytes())) {
+            Transfer transfer = backlog.removeFirst();
+            backlogBytes -= transfer.getBytes();
+            if (transfer.id != null) {
+                queuedIds.remove(transfer.id);
+            }
+            transfers.add(transfer);
+        }
+        return transfers;
+    }
+
+    /**
+     * Drop every transfer in the backlog, e.g. when the node crashes.
+     */
+    public void clear() {
+        backlog.clear();
+        queuedIds.clear();
+        backlogBytes = 0;
+    }
+
+    /**
+     * Record the latency of a client request.
+     * @param latency the latency in ms
+     */
+    public void recordLatency(long latency) {
+        latencyAverage = LATENCY_SMOOTHING * latency + (1 - LATENCY_SMOOTHING) * latencyAverage;
+        latencySamples++;
+    }
+
+    /**
+     * Adapt the rate to the client latency: halve it when the latency is over the target,
+     * increase it slowly otherwise.
+     * Without client requests the average latency decays, so an idle node goes back to the maximum rate.
+     * @param now the current time in ms
+     */
+    public void adjust(long now) {
+        if (now - lastAdjust < ADJUST_INTERVAL) {
+            return;
+        }
+        lastAdjust = now;
+        if (latencySamples == 0) {
+            latencyAverage *= 1 - LATENCY_SMOOTHING;
+        }
+        latencySamples = 0;
+        if (latencyAverage > targetLatency) {
+            rateFraction = Math.max(rateFraction * DECREASE_FACTOR, MIN_RATE_FRACTION);
+        } else {
+            rateFraction = Math.min(rateFraction + INCREASE_STEP, 1.0);
+        }
+    }
+
+    /**
+     * Get the current bytes rate.
+     * @return the bytes per second
+     */
+    public double getBytesRate() {
+        return maxBytesRate * rateFraction;
+    }
+
+    /**
+     * Get the current messages rate.
+     * @return the messages per second
+     */
+    public double getMessagesRate() {
+        return maxMessagesRate * rateFraction;
+    }
+
+    /**
+     * Get the number of transfers waiting in the backlog.
+     * @return the number of transfers
+     */
+    public int getBacklogSize() {
+        return backlog.size();
+    }
+
+    /**
+     * Get the size of the transfers waiting in the backlog.
+     * @return the size in bytes
+     */
+    public long getBacklogBytes() {
+        return backlogBytes;
+    }
+
+    /**
+     * Estimate the time needed to send the backlog at the current rate.
+     * @return the delay in ms
+     */
+    public long getBacklogDelay() {
+        double bytesRate = getBytesRate();
+        double messagesRate = getMessagesRate();
+        if (backlog.isEmpty() || bytesRate <= 0 || messagesRate <= 0) {
+            return 0;
+        }
+        return Math.round(1000 * Math.max(backlogBytes / bytesRate, backlog.size() / messagesRate));
+    }
+
+    /**
+     * Get the average latency of the client requests.
+     * @return the latency in ms
+     */
+    public double getLatencyAverage() {
+        return latencyAverage;
+    }
+}
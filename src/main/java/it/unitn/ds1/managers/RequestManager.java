@@ -1,6 +1,7 @@
 package it.unitn.ds1.managers;
 
 import java.util.HashMap;
+import java.util.Map;
 
 import akka.actor.*;
 import it.unitn.ds1.managers.DataManager.Data;
@@ -35,15 +36,18 @@ public class RequestManager {
         private Integer totalCounter;
         private final int quorumVal;
         private final ActorRef client;
-        //                    version, counter
-        private final HashMap<Integer, Integer> counterMap;
-        //                    version, value
-        private final HashMap<Integer, String> valueMap;
+        //                    (version, timestamp), counter
+        private final HashMap<Map.Entry<Integer, Long>, Integer> counterMap;
+        //                    (version, timestamp), value
+        private final HashMap<Map.Entry<Integer, Long>, String> valueMap;
         private String quoredValue;
+        private Data quoredData;
+        private final long startTime;
 
-        public ReadReq(ActorRef client) {
-            quorumVal = readQuorum;
+        public ReadReq(ActorRef client, int quorum) {
+            quorumVal = quorum;
             this.client = client;
+            this.startTime = System.currentTimeMillis();
             this.totalCounter = 0;
             this.counterMap = new HashMap<>();
             this.valueMap = new HashMap<>();
@@ -57,6 +61,14 @@ public class RequestManager {
             return quoredValue;
         }
 
+        /**
+         * Get the most recent item, with its version, according to the responses received
+         * @return the most recent item
+         */
+        public Data getQuoredData() {
+            return quoredData;
+        }
+
         /**
          * Update the quorum for a given read request
          * @param data Data received from a data node
@@ -64,11 +76,14 @@ public class RequestManager {
          */
         public Boolean updateQuorum(Data data) {
             totalCounter++;
-            valueMap.put(data.getVersion(), data.getValue());
-            counterMap.put(data.getVersion(), counterMap.getOrDefault(data.getVersion(), 0) + 1);
-
-            if (counterMap.get(data.getVersion()) >= quorumVal) {
-                quoredValue = valueMap.get(data.getVersion());
+            // the replicas agree if they have the same write, that blind writes identify by timestamp
+            Map.Entry<Integer, Long> write = Map.entry(data.getVersion(), data.getTimestamp());
+            valueMap.put(write, data.getValue());
+            counterMap.put(write, counterMap.getOrDefault(write, 0) + 1);
+
+            if (counterMap.get(write) >= quorumVal) {
+                quoredValue = valueMap.get(write);
+                quoredData = data;
                 return true;
             } else
                 return false;
@@ -88,10 +103,12 @@ public class RequestManager {
         private Integer quoredVersion;
         private final String updateValue;
         private final Integer updateKey;
+        private final long startTime;
 
-        public WriteReq(ActorRef client, Integer updateKey, String updateValue) {
-            quorumVal = writeQuorum;
+        public WriteReq(ActorRef client, Integer updateKey, String updateValue, int quorum) {
+            quorumVal = quorum;
             this.client = client;
+            this.startTime = System.currentTimeMillis();
             this.totalCounter = 0;
             this.counterMap = new HashMap<>();
             this.updateKey = updateKey;
@@ -147,7 +164,17 @@ public class RequestManager {
      * @param client    Reference to client node
      */
     public void newReadReq(String requestId, ActorRef client) {
-        readReq.put(requestId, new ReadReq(client));
+        newReadReq(requestId, client, readQuorum);
+    }
+
+    /**
+     * Initialize a new read quorum of a given size
+     * @param requestId Identifier of the request
+     * @param client    Reference to client node
+     * @param quorum    Number of equal responses that complete the request
+     */
+    public void newReadReq(String requestId, ActorRef client, int quorum) {
+        readReq.put(requestId, new ReadReq(client, quorum));
     }
 
     /**
@@ -194,6 +221,25 @@ public class RequestManager {
         return readReq.get(requestId).getQuoredValue();
     }
 
+    /**
+     * Get the item read by the quorum, with its version
+     * @param requestId Identifier of the request
+     * @return the item read
+     */
+    public Data getReadData(String requestId) {
+        return readReq.get(requestId).getQuoredData();
+    }
+
+    /**
+     * Get the time elapsed since a read request was received
+     * @param requestId Identifier of the request
+     * @param now the current time in ms
+     * @return the elapsed time in ms
+     */
+    public long getReadLatency(String requestId, long now) {
+        return now - readReq.get(requestId).startTime;
+    }
+
     /**
      * Remove a read request
      * @param requestId Identifier of the request to be removed
@@ -203,6 +249,17 @@ public class RequestManager {
     }
 
 
+    /**
+     * Remove all the read requests, e.g. when the coordinator crashes
+     * @return the client of every removed request, by request identifier
+     */
+    public Map<String, ActorRef> removeAllReadReqs() {
+        Map<String, ActorRef> clients = new HashMap<>();
+        readReq.forEach((requestId, state) -> clients.put(requestId, state.client));
+        readReq.clear();
+        return clients;
+    }
+
     /* ------- methods for write requests ------- */
 
     /**
@@ -213,7 +270,19 @@ public class RequestManager {
      * @param updateValue New value to store for the specified key
      */
     public void newWriteReq(String requestId, ActorRef client, Integer updateKey, String updateValue) {
-        writeReq.put(requestId, new WriteReq(client, updateKey, updateValue));
+        newWriteReq(requestId, client, updateKey, updateValue, writeQuorum);
+    }
+
+    /**
+     * Initialize a new update quorum of a given size
+     * @param requestId   Identifier of the request
+     * @param client      Reference to client node
+     * @param updateKey   Key that identify data to update
+     * @param updateValue New value to store for the specified key
+     * @param quorum      Number of equal responses that complete the request
+     */
+    public void newWriteReq(String requestId, ActorRef client, Integer updateKey, String updateValue, int quorum) {
+        writeReq.put(requestId, new WriteReq(client, updateKey, updateValue, quorum));
     }
 
     /**
@@ -260,6 +329,16 @@ public class RequestManager {
         return writeReq.get(requestId).getQuoredVersion();
     }
 
+    /**
+     * Get the time elapsed since a write request was received
+     * @param requestId Identifier of the request
+     * @param now the current time in ms
+     * @return the elapsed time in ms
+     */
+    public long getWriteLatency(String requestId, long now) {
+        return now - writeReq.get(requestId).startTime;
+    }
+
     /**
      * Remove a write request
      * @param requestId Identifier of the request to be removed
@@ -268,6 +347,17 @@ public class RequestManager {
         writeReq.remove(requestId);
     }
 
+    /**
+     * Remove all the write requests, e.g. when the coordinator crashes
+     * @return the client of every removed request, by request identifier
+     */
+    public Map<String, ActorRef> removeAllWriteReqs() {
+        Map<String, ActorRef> clients = new HashMap<>();
+        writeReq.forEach((requestId, state) -> clients.put(requestId, state.client));
+        writeReq.clear();
+        return clients;
+    }
+
     /**
      * Get the new value from the request
      * @param requestId Identifier of the request
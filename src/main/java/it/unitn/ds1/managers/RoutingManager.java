@@ -0,0 +1,102 @@
+package it.unitn.ds1.managers;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import akka.actor.ActorRef;
+import it.unitn.ds1.managers.GroupManager.DataNodeRef;
+
+/**
+ * RoutingManager
+ * A class used by the clients to send every request straight to a replica of its key.
+ * Instantiated by every client.
+ * It keeps a copy of the ring with its epoch, replaced when a coordinator reports that the epoch is stale,
+ * and picks the less loaded of two random replicas, the load being the requests still waiting for a reply.
+ * It can be used by many threads at once.
+ */
+public class RoutingManager {
+    private volatile GroupManager ring; // never modified once published, null until the first ring arrives
+    private volatile int epoch; // epoch of the ring, -1 until the first ring arrives
+
+    //                             data node, requests waiting for a reply
+    private final ConcurrentHashMap<ActorRef, AtomicInteger> outstanding;
+
+    public RoutingManager() {
+        this.ring = null;
+        this.epoch = -1;
+        this.outstanding = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Replace the ring, if the new one is more recent.
+     * @param group the data nodes of the ring
+     * @param replicasCount the number of replicas of every key
+     * @param epoch the epoch of the ring
+     */
+    public synchronized void updateRing(List<DataNodeRef> group, int replicasCount, int epoch) {
+        if (group.isEmpty() || this.epoch >= epoch) {
+            return;
+        }
+        GroupManager newRing = new GroupManager(replicasCount);
+        newRing.addNewGroup(new ArrayList<>(group));
+        ring = newRing;
+        this.epoch = epoch;
+    }
+
+    /**
+     * Get the epoch of the ring.
+     * @return the epoch, -1 if the ring is not known yet
+     */
+    public int getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * Pick the coordinator of a request among the replicas of its key: the less loaded of two random replicas.
+     * @param key the key of the request
+     * @return the coordinator, null if the ring is not known yet
+     */
+    public ActorRef pickCoordinator(Integer key) {
+        GroupManager current = ring;
+        if (current == null) {
+            return null;
+        }
+        List<ActorRef> replicas = current.findDataNodes(key);
+        if (replicas.size() == 1) {
+            return replicas.get(0);
+        }
+        // two distinct random replicas
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int i = random.nextInt(replicas.size());
+        int j = (i + 1 + random.nextInt(replicas.size() - 1)) % replicas.size();
+        ActorRef first = replicas.get(i);
+        ActorRef second = replicas.get(j);
+        return getLoad(second) < getLoad(first) ? second : first;
+    }
+
+    /**
+     * Record a request sent to a coordinator.
+     * @param coordinator the coordinator
+     */
+    public void requestSent(ActorRef coordinator) {
+        outstanding.computeIfAbsent(coordinator, c -> new AtomicInteger(0)).incrementAndGet();
+    }
+
+    /**
+     * Record the reply of a coordinator.
+     * @param coordinator the coordinator
+     */
+    public void requestCompleted(ActorRef coordinator) {
+        AtomicInteger load = outstanding.get(coordinator);
+        if (load != null) {
+            load.updateAndGet(l -> Math.max(l - 1, 0));
+        }
+    }
+
+    private int getLoad(ActorRef coordinator) {
+        AtomicInteger load = outstanding.get(coordinator);
+        return load == null ? 0 : load.get();
+    }
+}
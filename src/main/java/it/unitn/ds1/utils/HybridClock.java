@@ -0,0 +1,36 @@
+package it.unitn.ds1.utils;
+
+/**
+ * HybridClock
+ * A hybrid logical clock, used by the coordinators to order the updates.
+ * A timestamp keeps the physical time in ms in the high 48 bits and a logical counter in the low 16 bits:
+ * it follows the wall clock, but never goes back and always moves past the timestamps it has seen,
+ * so an update is stamped after every update its coordinator has observed, even with skewed clocks.
+ * Instantiated by every coordinator.
+ */
+public class HybridClock {
+    private static final int LOGICAL_BITS = 16;
+
+    private long last; // last timestamp issued or seen
+
+    public HybridClock() {
+        this.last = 0;
+    }
+
+    /**
+     * Get a new timestamp, greater than all the ones issued or seen.
+     * @return the timestamp
+     */
+    public long now() {
+        last = Math.max(last + 1, System.currentTimeMillis() << LOGICAL_BITS);
+        return last;
+    }
+
+    /**
+     * Move the clock past a timestamp received from another node.
+     * @param timestamp the received timestamp
+     */
+    public void update(long timestamp) {
+        last = Math.max(last, timestamp);
+    }
+}
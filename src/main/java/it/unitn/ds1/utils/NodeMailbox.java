@@ -0,0 +1,266 @@
+package it.unitn.ds1.utils;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import akka.dispatch.UnboundedMessageQueueSemantics;
+import com.typesafe.config.Config;
+import it.unitn.ds1.actors.Coordinator.AddHint;
+import it.unitn.ds1.actors.Coordinator.RequestCompleted;
+import it.unitn.ds1.actors.DataNode.*;
+import it.unitn.ds1.actors.DataPartition.CollectedItems;
+import scala.Option;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NodeMailbox
+ * The mailbox of the data nodes, that delivers the messages by priority class instead of in arrival order:
+ * client and quorum messages, periodic ticks, membership control, bulk data transfer and debug messages.
+ * The messages of the same class keep their order: the timeouts of the join, leave and recovery are in the bulk
+ * class, so that a timeout is never served before a reply it guards that is already in the mailbox.
+ * A non-empty class that has been passed over starvation-limit times is served before the higher ones,
+ * so that a stream of client requests cannot stop a join or a recovery.
+ * The new client requests are bounded by client-capacity: over it, the mailbox rejects them with an Overloaded
+ * reply instead of queueing them. It also tracks how long the client messages wait, used by the data node
+ * for its admission control.
+ * Configured in the node dispatcher (application.conf).
+ */
+public class NodeMailbox implements MailboxType, ProducesMessageQueue<NodeMailbox.PriorityQueue> {
+    public static final int CLIENT = 0;
+    public static final int TICK = 1;
+    public static final int CONTROL = 2;
+    public static final int BULK = 3;
+    public static final int DEBUG = 4;
+    private static final int CLASSES = 5;
+
+    private static final int DEFAULT_STARVATION_LIMIT = 16; // messages served before a waiting lower class
+    private static final int DEFAULT_CLIENT_CAPACITY = 1000; // client messages queued before rejecting new requests
+    private static final double WAIT_SMOOTHING = 0.1; // weight of the last sample in the wait average
+
+    //                               data node, its queue
+    private static final Map<ActorRef, PriorityQueue> QUEUES = new ConcurrentHashMap<>();
+
+    //                      message class, priority class
+    private static final Map<Class<?>, Integer> PRIORITIES = new HashMap<>();
+
+    static {
+        for (Class<?> c : List.of(AskReadData.class, AskWriteData.class, AskUpdateData.class, ReadData.class,
+                WriteData.class, AskVersion.class, AskReadVersion.class, UpdateData.class, BlindUpdate.class,
+                SequenceUpdate.class, ReplicateUpdate.class, ChainUpdate.class, RequestCompleted.class,
+                AddHint.class)) {
+            PRIORITIES.put(c, CLIENT);
+        }
+        for (Class<?> c : List.of(GossipTick.class, HeartbeatTick.class, RebalanceTick.class)) {
+            PRIORITIES.put(c, TICK);
+        }
+        for (Class<?> c : List.of(AskItemChunk.class, SendItemChunk.class, ChunkQueued.class, AskItemValues.class,
+                SendItemValues.class, NewDataBatch.class, AckNewData.class, ReplayHints.class, AskDataToRecover.class,
+                SendDataToRecover.class, CollectedItems.class, TimeoutOnChunk.class, TimeoutOnItemValues.class,
+                TimeoutOnLeave.class, TimeoutRecover.class)) {
+            PRIORITIES.put(c, BULK);
+        }
+        for (Class<?> c : List.of(AskStatus.class, PrintStatus.class, AskRebalanceStatus.class,
+                AskReadCacheStatus.class)) {
+            PRIORITIES.put(c, DEBUG);
+        }
+    }
+
+    private final int starvationLimit;
+    private final int clientCapacity;
+
+    public NodeMailbox(ActorSystem.Settings settings, Config config) {
+        this.starvationLimit = config.hasPath("starvation-limit")
+                ? config.getInt("starvation-limit")
+                : DEFAULT_STARVATION_LIMIT;
+        this.clientCapacity = config.hasPath("client-capacity")
+                ? config.getInt("client-capacity")
+                : DEFAULT_CLIENT_CAPACITY;
+    }
+
+    /**
+     * Get the priority class of a message, membership control for the messages not listed.
+     * @param message the message
+     * @return the priority class, lower is served first
+     */
+    public static int getPriority(Object message) {
+        return PRIORITIES.getOrDefault(message.getClass(), CONTROL);
+    }
+
+    /**
+     * Get the number of client messages waiting in the mailbox of a data node.
+     * @param node the data node
+     * @return the number of messages, 0 if the node does not use this mailbox
+     */
+    public static int getClientDepth(ActorRef node) {
+        PriorityQueue queue = QUEUES.get(node);
+        return queue == null ? 0 : queue.clientDepth.get();
+    }
+
+    /**
+     * Get the average time the client messages waited in the mailbox of a data node.
+     * @param node the data node
+     * @return the time in ms, 0 if the node does not use this mailbox
+     */
+    public static double getClientWait(ActorRef node) {
+        PriorityQueue queue = QUEUES.get(node);
+        return queue == null ? 0 : queue.clientWait;
+    }
+
+    /**
+     * Build the rejection of a new client request.
+     * @param message the message
+     * @param estimatedWait the average wait in the mailbox, in ms
+     * @return the rejection of the request, null if the message is not a client request
+     */
+    private static Overloaded reject(Object message, long estimatedWait) {
+        if (message instanceof AskReadData request) {
+            return new Overloaded(request.key, request.requestId, estimatedWait);
+        } else if (message instanceof AskUpdateData request) {
+            return new Overloaded(request.key, request.requestId, estimatedWait);
+        } else if (message instanceof AskWriteData request) {
+            return new Overloaded(request.key, null, estimatedWait);
+        }
+        return null;
+    }
+
+    @Override
+    public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+        PriorityQueue queue = new PriorityQueue(starvationLimit, clientCapacity);
+        if (!owner.isEmpty()) {
+            QUEUES.put(owner.get(), queue);
+        }
+        return queue;
+    }
+
+    /**
+     * Entry
+     * A class that represents a queued message with the time it has been enqueued.
+     */
+    static private class Entry {
+        private final Envelope handle;
+        private final long enqueueTime; // in ns
+
+        public Entry(Envelope handle, long enqueueTime) {
+            this.handle = handle;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+
+    /**
+     * PriorityQueue
+     * A class that keeps a FIFO queue for every priority class.
+     * The messages are enqueued by any thread, but dequeued by one thread at a time (the one running the actor).
+     */
+    public static class PriorityQueue implements MessageQueue, UnboundedMessageQueueSemantics {
+        private final int starvationLimit;
+        private final int clientCapacity;
+        private final List<Queue<Entry>> queues;
+        private final AtomicInteger size;
+        private final AtomicInteger clientDepth;
+        private volatile double clientWait; // in ms, only written by dequeue
+        private final int[] skipped; // times every class has been passed over while not empty, only read by dequeue
+
+        public PriorityQueue(int starvationLimit, int clientCapacity) {
+            this.starvationLimit = starvationLimit;
+            this.clientCapacity = clientCapacity;
+            this.queues = new ArrayList<>();
+            for (int i = 0; i < CLASSES; i++) {
+                queues.add(new ConcurrentLinkedQueue<>());
+            }
+            this.size = new AtomicInteger(0);
+            this.clientDepth = new AtomicInteger(0);
+            this.clientWait = 0;
+            this.skipped = new int[CLASSES];
+        }
+
+        @Override
+        public void enqueue(ActorRef receiver, Envelope handle) {
+            int priority = getPriority(handle.message());
+            if (priority == CLIENT) {
+                if (clientDepth.get() >= clientCapacity) {
+                    // shed the new requests, the quorum messages of the requests already accepted are kept
+                    Overloaded rejection = reject(handle.message(), Math.round(clientWait));
+                    if (rejection != null) {
+                        handle.sender().tell(rejection, receiver);
+                        return;
+                    }
+                }
+                clientDepth.incrementAndGet();
+            }
+            queues.get(priority).offer(new Entry(handle, System.nanoTime()));
+            size.incrementAndGet();
+        }
+
+        @Override
+        public Envelope dequeue() {
+            // a starving class goes first
+            for (int i = 1; i < CLASSES; i++) {
+                if (skipped[i] >= starvationLimit && !queues.get(i).isEmpty()) {
+                    return poll(i);
+                }
+            }
+
+            for (int i = 0; i < CLASSES; i++) {
+                if (!queues.get(i).isEmpty()) {
+                    for (int j = i + 1; j < CLASSES; j++) {
+                        if (!queues.get(j).isEmpty()) {
+                            skipped[j]++;
+                        }
+                    }
+                    return poll(i);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Take the first message of a class.
+         * @param priority the priority class
+         * @return the message
+         */
+        private Envelope poll(int priority) {
+            Entry entry = queues.get(priority).poll();
+            if (entry == null) {
+                return null;
+            }
+            skipped[priority] = 0;
+            size.decrementAndGet();
+            if (priority == CLIENT) {
+                clientDepth.decrementAndGet();
+                double wait = (System.nanoTime() - entry.enqueueTime) / 1e6;
+                clientWait = WAIT_SMOOTHING * wait + (1 - WAIT_SMOOTHING) * clientWait;
+            }
+            return entry.handle;
+        }
+
+        @Override
+        public int numberOfMessages() {
+            return size.get();
+        }
+
+        @Override
+        public boolean hasMessages() {
+            return size.get() > 0;
+        }
+
+        @Override
+        public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+            QUEUES.remove(owner, this);
+            for (Queue<Entry> queue : queues) {
+                Entry entry;
+                while ((entry = queue.poll()) != null) {
+                    deadLetters.enqueue(owner, entry.handle);
+                }
+            }
+            size.set(0);
+            clientDepth.set(0);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package it.unitn.ds1.utils;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+/**
+ * Profile
+ * The dispatchers used by the actors and the configuration profiles that tune them.
+ * The dispatchers are defined in application.conf, every profile is a configuration file that overrides them.
+ */
+public class Profile {
+    public static final String LATENCY = "latency";
+    public static final String THROUGHPUT = "throughput";
+
+    public static final String NODE_DISPATCHER = "dkvs.node-dispatcher";
+    public static final String STORAGE_DISPATCHER = "dkvs.storage-dispatcher";
+    public static final String COORDINATOR_DISPATCHER = "dkvs.coordinator-dispatcher";
+    public static final String CLIENT_DISPATCHER = "dkvs.client-dispatcher";
+    public static final String TIMER_DISPATCHER = "dkvs.timer-dispatcher";
+
+    /**
+     * Load the configuration of a profile.
+     * @param profile the name of the profile, latency or throughput
+     * @return the configuration
+     */
+    public static Config load(String profile) {
+        if (!profile.equals(LATENCY) && !profile.equals(THROUGHPUT)) {
+            System.out.println("ERROR: unknown profile " + profile + ", expected " + LATENCY + " or " + THROUGHPUT);
+            System.exit(0);
+        }
+        return ConfigFactory.load(profile);
+    }
+}